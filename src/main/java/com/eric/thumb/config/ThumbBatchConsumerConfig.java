@@ -1,26 +1,47 @@
 package com.eric.thumb.config;
 
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.AdaptiveBatchController;
+import com.eric.thumb.manager.batch.ThumbApplyWatermark;
+import com.eric.thumb.manager.batch.ThumbBatchBuffer;
+import com.eric.thumb.manager.batch.ThumbCountAccumulator;
+import com.eric.thumb.manager.batch.ThumbPairClock;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.pulsar.client.api.BatchReceivePolicy;
 import org.apache.pulsar.client.api.ConsumerBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.pulsar.annotation.PulsarListenerConsumerBuilderCustomizer;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.concurrent.TimeUnit;
 
 /**
- * 批量消费者配置 - 专门用于非热点数据的大批量处理
- * 
- * 配置特点：
- * 1. 大批量：1000条/批，最大化批处理效率
- * 2. 长超时：30秒，允许更长等待时间以积累更大批次
- * 3. 专门优化：针对非热点数据的特性进行调优
- * 
+ * 双通道消费者配置
+ *
+ * 生产端按 HeavyKeeper 把热点博客的事件发到热点 topic，其余发到批量 topic，两条通道各自独立：
+ * 1. 批量通道（bulk）：大批次、较长刷出间隔，追求吞吐量
+ * 2. 热点通道（hot）：小批次、极短刷出间隔，热点博客的点赞数接近实时落库
+ * 3. 每条通道有自己的接收策略、落库缓冲和自适应批次控制器，互不拖慢
+ *
+ * 参数前缀：thumb.consumer.{lane}
+ *
  * @author Eric
  */
 @Configuration
 public class ThumbBatchConsumerConfig {
 
+    public static final String BULK_LANE = "bulk";
+
+    public static final String HOT_LANE = "hot";
+
+    private final Environment environment;
+
+    public ThumbBatchConsumerConfig(Environment environment) {
+        this.environment = environment;
+    }
+
     /**
      * 批量消费者配置
      * 专门处理非热点数据，追求吞吐量而非延迟
@@ -32,18 +53,18 @@ public class ThumbBatchConsumerConfig {
             public void customize(ConsumerBuilder<Object> consumerBuilder) {
                 consumerBuilder.batchReceivePolicy(
                         BatchReceivePolicy.builder()
-                                // 大批量：1000条/批，适合非热点数据的批量处理
+                                // 每次最多接收 1000 条，真正的落库批次由 AdaptiveBatchController 决定
                                 .maxNumMessages(1000)
-                                // 长超时：30秒，允许积累更大批次
-                                .timeout(30, TimeUnit.SECONDS)
+                                // 短超时：只决定消息多快进入落库缓冲
+                                .timeout(receiveTimeoutMs(BULK_LANE, 100), TimeUnit.MILLISECONDS)
                                 // 大缓冲：减少网络往返
                                 .maxNumBytes(10 * 1024 * 1024) // 10MB
                                 .build()
                 );
-                
+
                 // 设置接收队列大小
                 consumerBuilder.receiverQueueSize(2000);
-                
+
                 // 设置消费者名称
                 consumerBuilder.consumerName("thumb-batch-consumer");
             }
@@ -51,7 +72,7 @@ public class ThumbBatchConsumerConfig {
     }
 
     /**
-     * 热点数据消费者配置（单条处理）
+     * 热点数据消费者配置
      * 追求低延迟而非吞吐量
      */
     @Bean("hotConsumerConfig")
@@ -59,10 +80,90 @@ public class ThumbBatchConsumerConfig {
         return new PulsarListenerConsumerBuilderCustomizer<Object>() {
             @Override
             public void customize(ConsumerBuilder<Object> consumerBuilder) {
-                // 热点数据不使用批量接收，追求低延迟
+                // 小批次 + 极短超时，消息到达后几乎立即进入落库缓冲
+                consumerBuilder.batchReceivePolicy(
+                        BatchReceivePolicy.builder()
+                                .maxNumMessages(100)
+                                .timeout(receiveTimeoutMs(HOT_LANE, 10), TimeUnit.MILLISECONDS)
+                                .build()
+                );
                 consumerBuilder.receiverQueueSize(100);
                 consumerBuilder.consumerName("thumb-hot-consumer");
             }
         };
     }
-} 
\ No newline at end of file
+
+    /**
+     * 批量通道落库缓冲
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public ThumbBatchBuffer bulkThumbBatchBuffer(BatchProcessManager batchProcessManager,
+                                                 ThumbCountAccumulator thumbCountAccumulator,
+                                                 ThumbApplyWatermark thumbApplyWatermark,
+                                                 ThumbPairClock thumbPairClock,
+                                                 TransactionTemplate transactionTemplate,
+                                                 MeterRegistry registry) {
+        AdaptiveBatchController.Settings defaults = AdaptiveBatchController.Settings.builder()
+                .minBatchSize(100)
+                .maxBatchSize(5000)
+                .initialBatchSize(1000)
+                .minFlushIntervalMs(50)
+                .maxFlushIntervalMs(5000)
+                .initialFlushIntervalMs(1000)
+                .flushIntervalStepMs(50)
+                .targetCommitMs(200)
+                .build();
+        AdaptiveBatchController controller = new AdaptiveBatchController(BULK_LANE, settings(BULK_LANE, defaults), registry);
+        return new ThumbBatchBuffer(BULK_LANE, controller, batchProcessManager, thumbCountAccumulator,
+                thumbApplyWatermark, thumbPairClock, transactionTemplate, registry);
+    }
+
+    /**
+     * 热点通道落库缓冲
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    public ThumbBatchBuffer hotThumbBatchBuffer(BatchProcessManager batchProcessManager,
+                                                ThumbCountAccumulator thumbCountAccumulator,
+                                                ThumbApplyWatermark thumbApplyWatermark,
+                                                ThumbPairClock thumbPairClock,
+                                                TransactionTemplate transactionTemplate,
+                                                MeterRegistry registry) {
+        AdaptiveBatchController.Settings defaults = AdaptiveBatchController.Settings.builder()
+                .minBatchSize(10)
+                .maxBatchSize(500)
+                .initialBatchSize(100)
+                .minFlushIntervalMs(10)
+                .maxFlushIntervalMs(500)
+                .initialFlushIntervalMs(20)
+                .flushIntervalStepMs(5)
+                .targetCommitMs(50)
+                .build();
+        AdaptiveBatchController controller = new AdaptiveBatchController(HOT_LANE, settings(HOT_LANE, defaults), registry);
+        return new ThumbBatchBuffer(HOT_LANE, controller, batchProcessManager, thumbCountAccumulator,
+                thumbApplyWatermark, thumbPairClock, transactionTemplate, registry);
+    }
+
+    private int receiveTimeoutMs(String lane, int defaultValue) {
+        return environment.getProperty("thumb.consumer." + lane + ".receive-timeout-ms", Integer.class, defaultValue);
+    }
+
+    /**
+     * 读取 thumb.consumer.{lane}.batch.* 覆盖默认值
+     */
+    private AdaptiveBatchController.Settings settings(String lane, AdaptiveBatchController.Settings defaults) {
+        String prefix = "thumb.consumer." + lane + ".batch.";
+        int maxBatchSize = environment.getProperty(prefix + "max-size", Integer.class, defaults.getMaxBatchSize());
+        long maxFlushIntervalMs = environment.getProperty(prefix + "max-flush-interval-ms", Long.class, defaults.getMaxFlushIntervalMs());
+        return AdaptiveBatchController.Settings.builder()
+                .minBatchSize(environment.getProperty(prefix + "min-size", Integer.class, defaults.getMinBatchSize()))
+                .maxBatchSize(maxBatchSize)
+                .initialBatchSize(Math.min(defaults.getInitialBatchSize(), maxBatchSize))
+                .batchSizeStep(defaults.getBatchSizeStep())
+                .minFlushIntervalMs(environment.getProperty(prefix + "min-flush-interval-ms", Long.class, defaults.getMinFlushIntervalMs()))
+                .maxFlushIntervalMs(maxFlushIntervalMs)
+                .initialFlushIntervalMs(Math.min(defaults.getInitialFlushIntervalMs(), maxFlushIntervalMs))
+                .flushIntervalStepMs(defaults.getFlushIntervalStepMs())
+                .targetCommitMs(environment.getProperty(prefix + "target-commit-ms", Long.class, defaults.getTargetCommitMs()))
+                .build();
+    }
+}
@@ -0,0 +1,23 @@
+package com.eric.thumb.config;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.listener.thumb.msg.ThumbEventSchema;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.pulsar.core.DefaultSchemaResolver;
+import org.springframework.pulsar.core.SchemaResolver;
+
+/**
+ * 点赞事件 Schema 配置
+ * 将 ThumbEvent 映射到紧凑的二进制 Schema，监听器和 PulsarTemplate 默认都会使用它
+ *
+ * @author Eric
+ */
+@Configuration
+public class ThumbSchemaConfig {
+
+    @Bean
+    public SchemaResolver.SchemaResolverCustomizer<DefaultSchemaResolver> thumbEventSchemaCustomizer() {
+        return schemaResolver -> schemaResolver.addCustomSchemaMapping(ThumbEvent.class, ThumbEventSchema.INSTANCE);
+    }
+}
@@ -16,8 +16,10 @@ public class RedisLuaScriptConstant {
      * 点赞 Lua 脚本  
      * KEYS[1]       -- 临时计数键  
      * KEYS[2]       -- 用户点赞状态键  
+     * KEYS[3]       -- 用户点赞摘要键
      * ARGV[1]       -- 用户 ID  
      * ARGV[2]       -- 博客 ID  
+     * "0" 是未点赞缓存，与 {@link #THUMB_DIGEST_MARK_SCRIPT} 相同，点赞时在同一脚本中更新用户点赞摘要
      * 返回:  
      * -1: 已点赞  
      * 1: 操作成功  
@@ -25,11 +27,13 @@ public class RedisLuaScriptConstant {
     public static final RedisScript<Long> THUMB_SCRIPT = new DefaultRedisScript<>("""  
             local tempThumbKey = KEYS[1]       -- 临时计数键（如 thumb:temp:{timeSlice}）  
             local userThumbKey = KEYS[2]       -- 用户点赞状态键（如 thumb:{userId}）  
+            local digestKey = KEYS[3]          -- 用户点赞摘要键（如 thumb:digest:{userId}）
             local userId = ARGV[1]             -- 用户 ID  
             local blogId = ARGV[2]             -- 博客 ID  
               
-            -- 1. 检查是否已点赞（避免重复操作）  
-            if redis.call('HEXISTS', userThumbKey, blogId) == 1 then  
+            -- 1. 检查是否已点赞（避免重复操作），"0" 是未点赞缓存
+            local old = redis.call('HGET', userThumbKey, blogId)
+            if old and old ~= '0' then
                 return -1  -- 已点赞，返回 -1 表示失败  
             end  
               
@@ -43,6 +47,13 @@ public class RedisLuaScriptConstant {
             -- 4. 原子性更新：写入临时计数 + 标记用户已点赞  
             redis.call('HSET', tempThumbKey, hashKey, newNumber)  
             redis.call('HSET', userThumbKey, blogId, 1)  
+
+            -- 5. 同步更新用户点赞摘要
+            local h = redis.sha1hex(blogId)
+            redis.call('HINCRBY', digestKey, 'count', 1)
+            redis.call('HSET', digestKey,
+                'd1', bit.bxor(tonumber(redis.call('HGET', digestKey, 'd1') or 0), tonumber(string.sub(h, 1, 7), 16)),
+                'd2', bit.bxor(tonumber(redis.call('HGET', digestKey, 'd2') or 0), tonumber(string.sub(h, 8, 14), 16)))
               
             return 1  -- 返回 1 表示成功  
             """, Long.class);  
@@ -50,6 +61,7 @@ public class RedisLuaScriptConstant {
     /**  
      * 取消点赞 Lua 脚本  
      * 参数同上  
+     * 写入未点赞缓存 "0" 而不是删除字段，与 {@link #THUMB_DIGEST_UNMARK_SCRIPT} 相同，并更新用户点赞摘要
      * 返回：  
      * -1: 未点赞  
      * 1: 操作成功  
@@ -57,11 +69,13 @@ public class RedisLuaScriptConstant {
     public static final RedisScript<Long> UNTHUMB_SCRIPT = new DefaultRedisScript<>("""  
             local tempThumbKey = KEYS[1]      -- 临时计数键（如 thumb:temp:{timeSlice}）  
             local userThumbKey = KEYS[2]      -- 用户点赞状态键（如 thumb:{userId}）  
+            local digestKey = KEYS[3]         -- 用户点赞摘要键（如 thumb:digest:{userId}）
             local userId = ARGV[1]            -- 用户 ID  
             local blogId = ARGV[2]            -- 博客 ID  
               
-            -- 1. 检查用户是否已点赞（若未点赞，直接返回失败）  
-            if redis.call('HEXISTS', userThumbKey, blogId) ~= 1 then  
+            -- 1. 检查用户是否已点赞（若未点赞，直接返回失败），"0" 是未点赞缓存
+            local old = redis.call('HGET', userThumbKey, blogId)
+            if not old or old == '0' then
                 return -1  -- 未点赞，返回 -1 表示失败  
             end  
               
@@ -72,55 +86,131 @@ public class RedisLuaScriptConstant {
             -- 3. 计算新值并更新  
             local newNumber = oldNumber - 1  
               
-            -- 4. 原子性操作：更新临时计数 + 删除用户点赞标记  
+            -- 4. 原子性操作：更新临时计数 + 写入未点赞缓存
             redis.call('HSET', tempThumbKey, hashKey, newNumber)  
-            redis.call('HDEL', userThumbKey, blogId)  
+            redis.call('HSET', userThumbKey, blogId, '0')
+
+            -- 5. 同步更新用户点赞摘要
+            local h = redis.sha1hex(blogId)
+            redis.call('HINCRBY', digestKey, 'count', -1)
+            redis.call('HSET', digestKey,
+                'd1', bit.bxor(tonumber(redis.call('HGET', digestKey, 'd1') or 0), tonumber(string.sub(h, 1, 7), 16)),
+                'd2', bit.bxor(tonumber(redis.call('HGET', digestKey, 'd2') or 0), tonumber(string.sub(h, 8, 14), 16)))
               
             return 1  -- 返回 1 表示成功  
             """, Long.class);
 
 
+    /**
+     * 点赞 Lua 脚本（Redis Streams 写入模式）：检查并标记点赞状态，同时追加点赞事件
+     * 与 {@link #THUMB_DIGEST_MARK_SCRIPT} 相同，"0" 是未点赞缓存，点赞时在同一脚本中更新用户点赞摘要
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 点赞事件 Stream 键
+     * KEYS[3]       -- 用户点赞摘要键
+     * ARGV[1]       -- 用户 ID
+     * ARGV[2]       -- 博客 ID
+     * ARGV[3]       -- 事件时间（epoch 毫秒）
+     * 返回:
+     * -1: 已点赞
+     * 1: 操作成功
+     */
+    public static final RedisScript<Long> THUMB_STREAM_SCRIPT = new DefaultRedisScript<>("""
+        local old = redis.call("HGET", KEYS[1], ARGV[2])
+        if old and old ~= "0" then
+            return -1
+        end
+        redis.call("HSET", KEYS[1], ARGV[2], 1)
+        local h = redis.sha1hex(ARGV[2])
+        redis.call("HINCRBY", KEYS[3], "count", 1)
+        redis.call("HSET", KEYS[3],
+            "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[3], "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[3], "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
+        redis.call("XADD", KEYS[2], "*", "userId", ARGV[1], "blogId", ARGV[2], "type", 1, "eventTime", ARGV[3])
+        return 1
+        """, Long.class);
+
+    /**
+     * 取消点赞 Lua 脚本（Redis Streams 写入模式）
+     * 与 {@link #THUMB_DIGEST_UNMARK_SCRIPT} 相同，写入未点赞缓存 "0" 而不是删除字段，并更新用户点赞摘要
+     * 参数同上
+     * 返回:
+     * -1: 未点赞
+     * 1: 操作成功
+     */
+    public static final RedisScript<Long> UNTHUMB_STREAM_SCRIPT = new DefaultRedisScript<>("""
+        local old = redis.call("HGET", KEYS[1], ARGV[2])
+        if not old or old == "0" then
+            return -1
+        end
+        redis.call("HSET", KEYS[1], ARGV[2], "0")
+        local h = redis.sha1hex(ARGV[2])
+        redis.call("HINCRBY", KEYS[3], "count", -1)
+        redis.call("HSET", KEYS[3],
+            "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[3], "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[3], "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
+        redis.call("XADD", KEYS[2], "*", "userId", ARGV[1], "blogId", ARGV[2], "type", -1, "eventTime", ARGV[3])
+        return 1
+        """, Long.class);
+
     /**
      * 点赞 Lua 脚本
      * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
      * ARGV[1]       -- 博客 ID
+     * "0" 是未点赞缓存，点赞时在同一脚本中更新用户点赞摘要
      * 返回:
      * -1: 已点赞
      * 1: 操作成功
      */
     public static final RedisScript<Long> THUMB_SCRIPT_MQ = new DefaultRedisScript<>("""  
                 local userThumbKey = KEYS[1]  
+                local digestKey = KEYS[2]
                 local blogId = ARGV[1]  
           
                 -- 判断是否已经点赞  
-                if redis.call("HEXISTS", userThumbKey, blogId) == 1 then  
+                local old = redis.call("HGET", userThumbKey, blogId)
+                if old and old ~= "0" then
                     return -1  
                 end  
           
-                -- 添加点赞记录  
+                -- 添加点赞记录，同步更新用户点赞摘要
                 redis.call("HSET", userThumbKey, blogId, 1)  
+                local h = redis.sha1hex(blogId)
+                redis.call("HINCRBY", digestKey, "count", 1)
+                redis.call("HSET", digestKey,
+                    "d1", bit.bxor(tonumber(redis.call("HGET", digestKey, "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+                    "d2", bit.bxor(tonumber(redis.call("HGET", digestKey, "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
                 return 1  
         """, Long.class);
 
     /**
      * 取消点赞 Lua 脚本
      * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
      * ARGV[1]       -- 博客 ID
+     * 写入未点赞缓存 "0" 而不是删除字段，并更新用户点赞摘要
      * 返回:
-     * -1: 已点赞
+     * -1: 未点赞
      * 1: 操作成功
      */
     public static final RedisScript<Long> UNTHUMB_SCRIPT_MQ = new DefaultRedisScript<>("""  
         local userThumbKey = KEYS[1]  
+        local digestKey = KEYS[2]
         local blogId = ARGV[1]  
           
         -- 判断是否已点赞  
-        if redis.call("HEXISTS", userThumbKey, blogId) == 0 then  
+        local old = redis.call("HGET", userThumbKey, blogId)
+        if not old or old == "0" then
             return -1  
         end  
           
-        -- 删除点赞记录  
-        redis.call("HDEL", userThumbKey, blogId)  
+        -- 写入未点赞缓存，同步更新用户点赞摘要
+        redis.call("HSET", userThumbKey, blogId, "0")
+        local h = redis.sha1hex(blogId)
+        redis.call("HINCRBY", digestKey, "count", -1)
+        redis.call("HSET", digestKey,
+            "d1", bit.bxor(tonumber(redis.call("HGET", digestKey, "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", digestKey, "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
         return 1  
         """, Long.class);
 
@@ -215,4 +305,210 @@ public class RedisLuaScriptConstant {
         return hotBlogs
         """, List.class);
 
+    /**
+     * 临时点赞数据扣减脚本：从字段中减去已落库的值，减到 0 时删除字段
+     * 字段保存的是尚未落库的净增量，同步期间新写入的操作留在差值中，由下一次同步处理
+     * KEYS[1]       -- 临时计数键
+     * ARGV          -- 字段、已落库的值交替排列
+     * 返回: 删除的字段数
+     */
+    public static final RedisScript<Long> TEMP_THUMB_SUBTRACT_SCRIPT = new DefaultRedisScript<>("""
+        local tempThumbKey = KEYS[1]
+        local deleted = 0
+        for i = 1, #ARGV, 2 do
+            if redis.call("HINCRBY", tempThumbKey, ARGV[i], -tonumber(ARGV[i + 1])) == 0 then
+                deleted = deleted + redis.call("HDEL", tempThumbKey, ARGV[i])
+            end
+        end
+        return deleted
+        """, Long.class);
+
+    /**
+     * 推进 (userId, blogId) 已应用的最新事件时间，只增不减
+     * KEYS[1]       -- 事件时间键
+     * ARGV[1]       -- 这批事件中该 (userId, blogId) 的最大事件时间（毫秒）
+     * ARGV[2]       -- 过期时间（毫秒）
+     * 返回: 推进前的事件时间，没有记录时返回 0
+     */
+    public static final RedisScript<Long> THUMB_PAIR_CLOCK_ADVANCE_SCRIPT = new DefaultRedisScript<>("""
+        local current = tonumber(redis.call("GET", KEYS[1]) or 0)
+        if tonumber(ARGV[1]) >= current then
+            redis.call("SET", KEYS[1], ARGV[1], "PX", ARGV[2])
+        end
+        return current
+        """, Long.class);
+
+    /**
+     * 推进临时点赞同步水位，只增不减
+     * KEYS[1]       -- 水位键
+     * KEYS[2]       -- 同步任务的防护令牌计数键
+     * ARGV[1]       -- 新水位
+     * ARGV[2]       -- 调用方持有的防护令牌
+     * 返回: 推进后的水位，-2 表示令牌已过期（租约已被其他节点接管）
+     */
+    public static final RedisScript<Long> TEMP_THUMB_WATERMARK_ADVANCE_SCRIPT = new DefaultRedisScript<>("""
+        if tonumber(redis.call("GET", KEYS[2]) or 0) ~= tonumber(ARGV[2]) then
+            return -2
+        end
+        local current = tonumber(redis.call("GET", KEYS[1]) or -1)
+        local target = tonumber(ARGV[1])
+        if target > current then
+            redis.call("SET", KEYS[1], ARGV[1])
+            return target
+        end
+        return current
+        """, Long.class);
+
+    /**
+     * 获取任务租约
+     * KEYS[1]       -- 租约键
+     * KEYS[2]       -- 防护令牌（fencing token）计数键
+     * ARGV[1]       -- 节点 ID
+     * ARGV[2]       -- 租约时长（毫秒）
+     * 返回: 防护令牌，-1 表示租约被其他节点持有
+     */
+    public static final RedisScript<Long> JOB_LEASE_ACQUIRE_SCRIPT = new DefaultRedisScript<>("""
+        local owner = redis.call("GET", KEYS[1])
+        if not owner then
+            redis.call("SET", KEYS[1], ARGV[1], "PX", ARGV[2])
+            return redis.call("INCR", KEYS[2])
+        end
+        if owner == ARGV[1] then
+            -- 续约，令牌不变
+            redis.call("PEXPIRE", KEYS[1], ARGV[2])
+            return tonumber(redis.call("GET", KEYS[2]) or 0)
+        end
+        return -1
+        """, Long.class);
+
+    /**
+     * 释放任务租约，只释放自己持有的
+     * KEYS[1]       -- 租约键
+     * ARGV[1]       -- 节点 ID
+     */
+    public static final RedisScript<Long> JOB_LEASE_RELEASE_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call("GET", KEYS[1]) == ARGV[1] then
+            return redis.call("DEL", KEYS[1])
+        end
+        return 0
+        """, Long.class);
+
+    /**
+     * 标记已点赞并更新用户点赞摘要，已点赞时摘要不变
+     * 摘要哈希与 ThumbDigestUtil 一致：blogId 字符串 SHA-1 的前 7 位、后续 7 位十六进制
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
+     * ARGV[1]       -- 博客 ID
+     * ARGV[2]       -- 点赞状态值，不能是未点赞缓存 "0"（写入未点赞缓存用 HSETNX，见 ThumbDigestManager#markCacheMiss）
+     * 返回: 1 新增点赞，0 原本已点赞
+     */
+    public static final RedisScript<Long> THUMB_DIGEST_MARK_SCRIPT = new DefaultRedisScript<>("""
+        if ARGV[2] == "0" then
+            return redis.error_reply("点赞状态值不能是未点赞缓存")
+        end
+        local old = redis.call("HGET", KEYS[1], ARGV[1])
+        redis.call("HSET", KEYS[1], ARGV[1], ARGV[2])
+        -- "0" 是未点赞缓存
+        if old and old ~= "0" then
+            return 0
+        end
+        local h = redis.sha1hex(ARGV[1])
+        redis.call("HINCRBY", KEYS[2], "count", 1)
+        redis.call("HSET", KEYS[2],
+            "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
+        return 1
+        """, Long.class);
+
+    /**
+     * 标记未点赞并更新用户点赞摘要，原本未点赞时摘要不变
+     * 写入未点赞缓存 "0" 而不是删除字段：取消点赞的事件落库前，缺失的字段会被回源查询按已点赞回填
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
+     * ARGV[1]       -- 博客 ID
+     * 返回: 1 取消点赞，0 原本未点赞
+     */
+    public static final RedisScript<Long> THUMB_DIGEST_UNMARK_SCRIPT = new DefaultRedisScript<>("""
+        local old = redis.call("HGET", KEYS[1], ARGV[1])
+        redis.call("HSET", KEYS[1], ARGV[1], "0")
+        if not old or old == "0" then
+            return 0
+        end
+        local h = redis.sha1hex(ARGV[1])
+        redis.call("HINCRBY", KEYS[2], "count", -1)
+        redis.call("HSET", KEYS[2],
+            "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
+        return 1
+        """, Long.class);
+
+    /**
+     * 用数据库中的点赞记录补齐用户点赞状态，并更新用户点赞摘要
+     * 只补用户点赞状态已存在、且没有这个字段的记录：
+     * 不存在的用户由回源查询按需加载，已有字段（包括未点赞缓存）以 Redis 为准
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
+     * ARGV[1]       -- 博客 ID
+     * ARGV[2]       -- 点赞状态值
+     * 返回: 1 补齐，0 跳过
+     */
+    public static final RedisScript<Long> THUMB_DIGEST_FILL_SCRIPT = new DefaultRedisScript<>("""
+        if redis.call("EXISTS", KEYS[1]) == 0 or redis.call("HEXISTS", KEYS[1], ARGV[1]) == 1 then
+            return 0
+        end
+        redis.call("HSET", KEYS[1], ARGV[1], ARGV[2])
+        local h = redis.sha1hex(ARGV[1])
+        redis.call("HINCRBY", KEYS[2], "count", 1)
+        redis.call("HSET", KEYS[2],
+            "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d1") or 0), tonumber(string.sub(h, 1, 7), 16)),
+            "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d2") or 0), tonumber(string.sub(h, 8, 14), 16)))
+        return 1
+        """, Long.class);
+
+    /**
+     * 批量加载一个用户的点赞状态并更新用户点赞摘要，已有的字段（包括未点赞缓存）不覆盖
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
+     * ARGV          -- 博客 ID、点赞状态值交替排列
+     * 返回: 新写入的字段数
+     */
+    public static final RedisScript<Long> THUMB_DIGEST_LOAD_SCRIPT = new DefaultRedisScript<>("""
+        local added, d1, d2 = 0, 0, 0
+        for i = 1, #ARGV, 2 do
+            if redis.call("HSETNX", KEYS[1], ARGV[i], ARGV[i + 1]) == 1 then
+                local h = redis.sha1hex(ARGV[i])
+                added = added + 1
+                d1 = bit.bxor(d1, tonumber(string.sub(h, 1, 7), 16))
+                d2 = bit.bxor(d2, tonumber(string.sub(h, 8, 14), 16))
+            end
+        end
+        if added > 0 then
+            redis.call("HINCRBY", KEYS[2], "count", added)
+            redis.call("HSET", KEYS[2],
+                "d1", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d1") or 0), d1),
+                "d2", bit.bxor(tonumber(redis.call("HGET", KEYS[2], "d2") or 0), d2))
+        end
+        return added
+        """, Long.class);
+
+    /**
+     * 按用户点赞状态重新计算摘要
+     * KEYS[1]       -- 用户点赞状态键
+     * KEYS[2]       -- 用户点赞摘要键
+     * 返回: 点赞数
+     */
+    public static final RedisScript<Long> THUMB_DIGEST_REBUILD_SCRIPT = new DefaultRedisScript<>("""
+        local fields = redis.call("HGETALL", KEYS[1])
+        local count, d1, d2 = 0, 0, 0
+        for i = 1, #fields, 2 do
+            if fields[i + 1] ~= "0" then
+                local h = redis.sha1hex(fields[i])
+                count = count + 1
+                d1 = bit.bxor(d1, tonumber(string.sub(h, 1, 7), 16))
+                d2 = bit.bxor(d2, tonumber(string.sub(h, 8, 14), 16))
+            end
+        end
+        redis.call("HSET", KEYS[2], "count", count, "d1", d1, "d2", d2)
+        return count
+        """, Long.class);
 }
@@ -12,9 +12,34 @@ public interface ThumbConstant {
 
     Long UN_THUMB_CONSTANT = 0L;
 
+    /**
+     * 用户点赞摘要 hash key（count、d1、d2），与用户点赞 hash 在同一个 Lua 脚本中更新
+     */
+    String USER_THUMB_DIGEST_KEY_PREFIX = "thumb:digest:";
+
     /**
      * 临时 点赞记录 key
      */
     String TEMP_THUMB_KEY_PREFIX = "thumb:temp:%s";
 
+    /**
+     * 已落库的最大临时点赞时间片（不在 thumb:temp:* 下，补偿任务不会把它当作时间片）
+     */
+    String TEMP_THUMB_WATERMARK_KEY = "thumb:sync:watermark";
+
+    /**
+     * 点赞事件 Stream key，按 userId 分区（Redis Streams 写入模式）
+     */
+    String THUMB_STREAM_KEY_PREFIX = "thumb:stream:%s";
+
+    /**
+     * 每个 (userId, blogId) 已应用的最新事件时间
+     */
+    String THUMB_PAIR_CLOCK_KEY_PREFIX = "thumb:clock:%s:%s";
+
+    /**
+     * 点赞事件 Stream 的消费者组
+     */
+    String THUMB_STREAM_GROUP = "thumb-stream-group";
+
 }
@@ -0,0 +1,111 @@
+package com.eric.thumb.controller;
+
+import cn.hutool.core.util.StrUtil;
+import com.eric.thumb.common.BaseResponse;
+import com.eric.thumb.common.ResultUtils;
+import com.eric.thumb.manager.cache.ThumbCacheRebuildManager;
+import com.eric.thumb.manager.mq.ThumbDeadLetterManager;
+import jakarta.annotation.Resource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 点赞链路运维接口
+ * 需要在请求头 X-Admin-Token 中携带 thumb.admin.token，未配置时接口不可用
+ *
+ * @author Eric
+ */
+@RestController
+@RequestMapping("admin/thumb")
+public class ThumbAdminController {
+
+    private static final int MAX_REPLAY_LIMIT = 100_000;
+
+    private static final int MAX_REPLAY_RATE = 2000;
+
+    private static final int MAX_REBUILD_RATE = 1_000_000;
+
+    @Resource
+    private ThumbDeadLetterManager thumbDeadLetterManager;
+
+    @Resource
+    private ThumbCacheRebuildManager thumbCacheRebuildManager;
+
+    @Value("${thumb.admin.token:}")
+    private String adminToken;
+
+    /**
+     * 待重放的死信事件数
+     */
+    @GetMapping("/dlq/pending")
+    public BaseResponse<Long> countPendingDeadLetters(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        checkToken(token);
+        return ResultUtils.success(thumbDeadLetterManager.countPending());
+    }
+
+    /**
+     * 触发死信事件重放
+     *
+     * @param limit 最多重放的事件数
+     * @param rate  每秒最多重放的事件数
+     * @return 是否启动（已有重放任务在运行时返回 false）
+     */
+    @PostMapping("/dlq/replay")
+    public BaseResponse<Boolean> replayDeadLetters(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                                   @RequestParam(defaultValue = "10000") int limit,
+                                                   @RequestParam(defaultValue = "200") int rate) {
+        checkToken(token);
+        if (limit <= 0 || limit > MAX_REPLAY_LIMIT || rate <= 0 || rate > MAX_REPLAY_RATE) {
+            throw new RuntimeException("参数错误");
+        }
+        return ResultUtils.success(thumbDeadLetterManager.startReplay(limit, rate));
+    }
+
+    /**
+     * 从 MySQL 批量重建 Redis 用户点赞状态，默认从上次的检查点继续
+     *
+     * @param rate    每秒最多写入的记录数
+     * @param restart 是否忽略检查点从头重建
+     * @return 是否启动（已有重建任务在运行时返回 false）
+     */
+    @PostMapping("/cache/rebuild")
+    public BaseResponse<Boolean> rebuildCache(@RequestHeader(value = "X-Admin-Token", required = false) String token,
+                                              @RequestParam(defaultValue = "50000") int rate,
+                                              @RequestParam(defaultValue = "false") boolean restart) {
+        checkToken(token);
+        if (rate <= 0 || rate > MAX_REBUILD_RATE) {
+            throw new RuntimeException("参数错误");
+        }
+        return ResultUtils.success(thumbCacheRebuildManager.start(rate, restart));
+    }
+
+    /**
+     * 停止重建，保存检查点后退出
+     */
+    @PostMapping("/cache/rebuild/stop")
+    public BaseResponse<Boolean> stopCacheRebuild(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        checkToken(token);
+        thumbCacheRebuildManager.stop();
+        return ResultUtils.success(true);
+    }
+
+    /**
+     * 重建进度
+     */
+    @GetMapping("/cache/rebuild")
+    public BaseResponse<Map<Object, Object>> getCacheRebuildProgress(@RequestHeader(value = "X-Admin-Token", required = false) String token) {
+        checkToken(token);
+        Map<Object, Object> progress = new HashMap<>(thumbCacheRebuildManager.progress());
+        progress.put("running", thumbCacheRebuildManager.isRunning());
+        return ResultUtils.success(progress);
+    }
+
+    private void checkToken(String token) {
+        if (StrUtil.isBlank(adminToken) || !adminToken.equals(token)) {
+            throw new RuntimeException("无权限");
+        }
+    }
+}
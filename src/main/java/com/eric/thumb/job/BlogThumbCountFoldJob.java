@@ -0,0 +1,72 @@
+package com.eric.thumb.job;
+
+import com.eric.thumb.manager.job.JobCoordinator;
+import com.eric.thumb.mapper.BlogMapper;
+import com.eric.thumb.mapper.BlogThumbCountShardMapper;
+import com.eric.thumb.model.entity.BlogThumbCountShard;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 定时将热点博客的点赞数分片合并回 blog.thumbCount
+ *
+ * 合并在一个事务内完成：锁定分片 -> 累加到 blog -> 删除分片，
+ * 合并期间新的分片增量会等待事务提交后再写入，不会丢失
+ * 多副本下只有持有租约的节点合并，避免多个节点争抢同一批分片行的锁
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class BlogThumbCountFoldJob {
+
+    private static final String JOB_NAME = "thumb-count-fold";
+
+    @Resource
+    private BlogThumbCountShardMapper blogThumbCountShardMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * 每次最多合并的博客数
+     */
+    @Value("${thumb.count.fold-batch-size:100}")
+    private int foldBatchSize;
+
+    @Scheduled(fixedDelayString = "${thumb.count.fold-interval-ms:30000}")
+    @Transactional(rollbackFor = Exception.class)
+    public void run() {
+        // 租约时长覆盖几轮合并间隔，持有者每轮续约
+        if (jobCoordinator.tryAcquire(JOB_NAME, Duration.ofMinutes(2)).isEmpty()) {
+            return;
+        }
+        List<Long> blogIds = blogThumbCountShardMapper.selectBlogIds(foldBatchSize);
+        if (blogIds.isEmpty()) {
+            return;
+        }
+        List<BlogThumbCountShard> shards = blogThumbCountShardMapper.selectByBlogIdsForUpdate(blogIds);
+        Map<Long, Long> countMap = new HashMap<>(blogIds.size());
+        for (BlogThumbCountShard shard : shards) {
+            countMap.merge(shard.getBlogId(), shard.getThumbCount(), Long::sum);
+        }
+        countMap.values().removeIf(count -> count == 0);
+        if (!countMap.isEmpty()) {
+            blogMapper.batchUpdateThumbCount(countMap);
+        }
+        blogThumbCountShardMapper.deleteByBlogIds(blogIds);
+        log.info("点赞数分片合并完成，博客数 {}", blogIds.size());
+    }
+}
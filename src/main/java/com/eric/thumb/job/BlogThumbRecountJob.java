@@ -0,0 +1,212 @@
+package com.eric.thumb.job;
+
+import cn.hutool.core.util.NumberUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
+import com.eric.thumb.manager.job.JobCoordinator;
+import com.eric.thumb.mapper.BlogMapper;
+import com.eric.thumb.mapper.ThumbMapper;
+import com.eric.thumb.model.entity.Blog;
+import com.eric.thumb.model.entity.Thumb;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 博客点赞数重算任务
+ *
+ * {@link ThumbReconcileJob} 只处理 Redis 有而 MySQL 没有的点赞，这里处理另外两类偏差：
+ * 1. blog.thumbCount（含未合并的分片增量）与 thumb 表 COUNT(*) 不一致，例如批次被重复应用
+ * 2. MySQL 有而 Redis 用户点赞状态中没有的记录
+ *
+ * 按 thumb 主键分段扫描（keyset），每段一条 GROUP BY blogId 统计，再按博客主键分页和存储的点赞数比较：
+ * 1. 扫描期间仍有点赞写入，单次观察到的偏差可能只是在途数据。偏差记录在 Redis 中，
+ *    连续两轮观察到同一博客的同一偏差才修正，修正以增量方式写入，不覆盖并发的点赞
+ * 2. 同一段点赞记录按 pipeline 补齐 Redis 中缺失的字段，只补已加载的用户
+ * 3. 按每秒行数限速，白天也可以运行；多副本下只有持有租约的节点执行
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class BlogThumbRecountJob {
+
+    private static final String JOB_NAME = "thumb-recount";
+
+    /**
+     * 上一轮观察到的偏差，blogId -> 偏差
+     */
+    private static final String DRIFT_KEY = "thumb:recount:drift";
+
+    @Resource
+    private ThumbMapper thumbMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private BatchProcessManager batchProcessManager;
+
+    @Resource
+    private ThumbDigestManager thumbDigestManager;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * 每段扫描的点赞记录数，也是每页比较的博客数
+     */
+    @Value("${thumb.recount.chunk-size:2000}")
+    private int chunkSize;
+
+    /**
+     * 每秒最多扫描的点赞记录数
+     */
+    @Value("${thumb.recount.rows-per-second:20000}")
+    private int rowsPerSecond;
+
+    /**
+     * 是否补齐 Redis 中缺失的点赞状态
+     */
+    @Value("${thumb.recount.fill-redis:true}")
+    private boolean fillRedis;
+
+    /**
+     * 租约时长（毫秒），扫描期间每段续约
+     */
+    @Value("${thumb.recount.lease-ms:300000}")
+    private long leaseMs;
+
+    @Scheduled(cron = "${thumb.recount.cron:0 30 */6 * * ?}")
+    public void run() {
+        Duration leaseTtl = Duration.ofMillis(leaseMs);
+        if (jobCoordinator.tryAcquire(JOB_NAME, leaseTtl).isEmpty()) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        try {
+            Map<Long, Long> counted = new HashMap<>();
+            long filled = scanThumbs(counted, leaseTtl);
+            if (filled < 0) {
+                return;
+            }
+            int corrected = correctCounts(counted, leaseTtl);
+            log.info("点赞数重算完成，博客 {} 个，修正 {} 个，补齐 Redis 点赞状态 {} 条，耗时 {}ms",
+                    counted.size(), corrected, filled, System.currentTimeMillis() - startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("点赞数重算被中断");
+        } finally {
+            jobCoordinator.release(JOB_NAME);
+        }
+    }
+
+    /**
+     * 按主键分段扫描 thumb 表，累加各博客的点赞数，同时补齐 Redis
+     *
+     * @return 补齐的记录数，租约丢失时返回 -1
+     */
+    private long scanThumbs(Map<Long, Long> counted, Duration leaseTtl) throws InterruptedException {
+        long filled = 0;
+        long afterId = 0;
+        Long upperId;
+        while ((upperId = thumbMapper.selectRangeUpperId(afterId, chunkSize)) != null) {
+            long start = System.nanoTime();
+            for (Blog blog : thumbMapper.countByBlogInIdRange(afterId, upperId)) {
+                counted.merge(blog.getId(), blog.getThumbCount().longValue(), Long::sum);
+            }
+            if (fillRedis) {
+                List<Thumb> thumbs = thumbMapper.selectByIdRange(afterId, upperId);
+                if (!thumbs.isEmpty()) {
+                    filled += thumbDigestManager.fillMissing(thumbs);
+                }
+            }
+            afterId = upperId;
+            if (jobCoordinator.tryAcquire(JOB_NAME, leaseTtl).isEmpty()) {
+                log.warn("点赞数重算租约已被其他节点接管，停止本轮");
+                return -1;
+            }
+            throttle(start, chunkSize);
+        }
+        return filled;
+    }
+
+    /**
+     * 按博客主键分页比较点赞数，修正连续两轮一致的偏差
+     *
+     * @return 修正的博客数
+     */
+    private int correctCounts(Map<Long, Long> counted, Duration leaseTtl) throws InterruptedException {
+        Map<Object, Object> previousDrifts = stringRedisTemplate.opsForHash().entries(DRIFT_KEY);
+        Map<String, String> drifts = new HashMap<>();
+        Map<Long, Long> corrections = new HashMap<>();
+        int corrected = 0;
+        long afterId = 0;
+        while (true) {
+            long start = System.nanoTime();
+            List<Long> blogIds = blogMapper.selectObjs(new LambdaQueryWrapper<Blog>()
+                    .select(Blog::getId)
+                    .gt(Blog::getId, afterId)
+                    .orderByAsc(Blog::getId)
+                    .last("LIMIT " + chunkSize));
+            if (blogIds.isEmpty()) {
+                break;
+            }
+            for (Blog blog : blogMapper.selectThumbCounts(blogIds)) {
+                long drift = counted.getOrDefault(blog.getId(), 0L) - blog.getThumbCount();
+                if (drift == 0) {
+                    continue;
+                }
+                Object previous = previousDrifts.get(blog.getId().toString());
+                if (previous != null && NumberUtil.isLong(previous.toString()) && Long.parseLong(previous.toString()) == drift) {
+                    corrections.put(blog.getId(), drift);
+                } else {
+                    drifts.put(blog.getId().toString(), String.valueOf(drift));
+                }
+            }
+            if (!corrections.isEmpty()) {
+                batchProcessManager.updateBlogThumbCount(corrections);
+                corrected += corrections.size();
+                corrections.forEach((blogId, drift) -> log.warn("修正博客点赞数 blogId={}, 偏差={}", blogId, drift));
+                corrections = new HashMap<>();
+            }
+            afterId = blogIds.get(blogIds.size() - 1);
+            if (jobCoordinator.tryAcquire(JOB_NAME, leaseTtl).isEmpty()) {
+                log.warn("点赞数重算租约已被其他节点接管，停止本轮");
+                return corrected;
+            }
+            throttle(start, blogIds.size());
+        }
+        // 本轮的偏差留给下一轮确认
+        stringRedisTemplate.delete(DRIFT_KEY);
+        if (!drifts.isEmpty()) {
+            stringRedisTemplate.opsForHash().putAll(DRIFT_KEY, drifts);
+            stringRedisTemplate.expire(DRIFT_KEY, Duration.ofDays(2));
+        }
+        return corrected;
+    }
+
+    /**
+     * 按每秒行数限速
+     */
+    private void throttle(long startNanos, int rows) throws InterruptedException {
+        long minNanos = TimeUnit.SECONDS.toNanos(rows) / rowsPerSecond;
+        long sleepNanos = minNanos - (System.nanoTime() - startNanos);
+        if (sleepNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(sleepNanos);
+        }
+    }
+}
@@ -1,48 +1,172 @@
 package com.eric.thumb.job;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.util.ObjUtil;
+import cn.hutool.core.util.NumberUtil;
 import com.eric.thumb.constant.ThumbConstant;
+import com.eric.thumb.manager.job.JobCoordinator;
 import com.eric.thumb.util.RedisKeyUtil;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * 定时将 Redis 中的临时点赞数据同步到数据库的补偿措施  
- *  
+ * 定时将 Redis 中的临时点赞数据同步到数据库的补偿措施
+ *
+ * 1. 用 SCAN 分批发现 thumb:temp:* 时间片，不再用阻塞整个 Redis 的 KEYS
+ * 2. 只补偿同步水位及之前的时间片和旧格式（HH:mm:ss）的时间片，水位之后的由 {@link SyncThumb2DBJob} 负责
+ * 3. 时间片按时间先后逐个同步（旧格式在前，各自升序）：同一 (userId, blogId) 可能在前后两个时间片中先点赞后取消，
+ *    不同时间片不能并行；只有同一时间片内的各块由 {@link SyncThumb2DBJob} 并行落库。某个时间片失败时停止，
+ *    后面的时间片留给下次补偿
+ * 4. 可恢复：每块数据提交后即从临时 hash 中扣减，重新执行只会看到剩余数据；
+ *    运行期间在 Redis 中保留进度标记，进程中途退出时，下次启动后立即重新补偿，不必等到第二天
+ * 5. 多副本下只有持有租约的节点补偿（{@link JobCoordinator}），每个时间片之前续约，租约丢失时停止
+ *
  * @author Eric
- */  
+ */
 @Component
 @Slf4j
-public class SyncThumb2DBCompensatoryJob {  
-  
+public class SyncThumb2DBCompensatoryJob {
+
+    /**
+     * 补偿进行中的标记，记录开始时间和已完成的时间片数
+     */
+    private static final String PROGRESS_KEY = "thumb:sync:compensate:progress";
+
+    private static final String JOB_NAME = "thumb-compensate";
+
+    /**
+     * 补偿租约时长，需要大于单个时间片的同步耗时
+     */
+    private static final Duration LEASE_TTL = Duration.ofMinutes(10);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
-  
-    @Resource  
-    private SyncThumb2DBJob syncThumb2DBJob;  
-  
+    private SyncThumb2DBJob syncThumb2DBJob;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * 每次 SCAN 的 COUNT
+     */
+    @Value("${thumb.sync.compensate-scan-count:1000}")
+    private int scanCount;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
     @Scheduled(cron = "0 0 2 * * *")
     public void run() {
-        log.info("开始补偿数据");
-        Set<String> thumbKeys = redisTemplate.keys(RedisKeyUtil.getTempThumbKey("") + "*");
-        Set<String> needHandleDataSet = new HashSet<>();
-        thumbKeys.stream().filter(ObjUtil::isNotNull).forEach(thumbKey -> needHandleDataSet.add(thumbKey.replace(ThumbConstant.TEMP_THUMB_KEY_PREFIX.formatted(""), "")));
+        if (!running.compareAndSet(false, true)) {
+            log.info("补偿任务正在执行，跳过本次");
+            return;
+        }
+        try {
+            compensate();
+        } finally {
+            running.set(false);
+        }
+    }
+
+    /**
+     * 上次补偿没有完成（进度标记仍在），启动后立即继续
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(PROGRESS_KEY))) {
+            log.info("上次补偿未完成，继续补偿：{}", stringRedisTemplate.opsForHash().entries(PROGRESS_KEY));
+            Thread.startVirtualThread(this::run);
+        }
+    }
 
-        if (CollUtil.isEmpty(needHandleDataSet)) {
-            log.info("没有需要补偿的临时数据");
+    private void compensate() {
+        Optional<JobCoordinator.Lease> lease = jobCoordinator.tryAcquire(JOB_NAME, LEASE_TTL);
+        if (lease.isEmpty()) {
+            log.info("补偿租约由其他节点持有，跳过本次");
             return;
         }
-        // 补偿数据
-        for (String date : needHandleDataSet) {
-            syncThumb2DBJob.syncThumb2DBByDate(date);
+        try {
+            jobCoordinator.fence(lease.get());
+            log.info("开始补偿数据");
+            List<String> slices = discoverSlices();
+            if (slices.isEmpty()) {
+                log.info("没有需要补偿的临时数据");
+                stringRedisTemplate.delete(PROGRESS_KEY);
+                return;
+            }
+            stringRedisTemplate.opsForHash().putIfAbsent(PROGRESS_KEY, "startedAt", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForHash().put(PROGRESS_KEY, "total", String.valueOf(slices.size()));
+            stringRedisTemplate.expire(PROGRESS_KEY, Duration.ofDays(1));
+
+            int completed = 0;
+            for (String slice : slices) {
+                // 续约令牌不变；租约中途过期后重新获得时令牌递增，需要重新推进
+                Optional<JobCoordinator.Lease> renewed = jobCoordinator.tryAcquire(JOB_NAME, LEASE_TTL);
+                if (renewed.isEmpty()) {
+                    log.warn("补偿租约已被其他节点接管，停止本次补偿，已完成 {}/{}", completed, slices.size());
+                    return;
+                }
+                if (renewed.get().token() != lease.get().token()) {
+                    lease = renewed;
+                    jobCoordinator.fence(lease.get());
+                }
+                try {
+                    syncThumb2DBJob.syncThumb2DBByDate(slice, lease.get());
+                } catch (Exception e) {
+                    // 后面的时间片可能包含同一 (userId, blogId) 更新的操作，不能越过失败的时间片
+                    log.error("临时点赞时间片 {} 补偿失败，停止本次补偿，已完成 {}/{}", slice, completed, slices.size(), e);
+                    return;
+                }
+                completed++;
+                stringRedisTemplate.opsForHash().increment(PROGRESS_KEY, "completed", 1);
+            }
+            stringRedisTemplate.delete(PROGRESS_KEY);
+            log.info("临时数据补偿完成，时间片 {} 个", slices.size());
+        } finally {
+            jobCoordinator.release(JOB_NAME);
+        }
+    }
+
+    /**
+     * SCAN 发现需要补偿的时间片：旧格式的在前，各自按时间升序
+     */
+    private List<String> discoverSlices() {
+        String prefix = RedisKeyUtil.getTempThumbKey("");
+        String watermark = stringRedisTemplate.opsForValue().get(ThumbConstant.TEMP_THUMB_WATERMARK_KEY);
+        long maxSlice = watermark == null ? Long.MIN_VALUE : Long.parseLong(watermark);
+
+        List<String> legacySlices = new ArrayList<>();
+        List<Long> slices = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(scanCount).build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                String slice = cursor.next().substring(prefix.length());
+                if (!NumberUtil.isLong(slice)) {
+                    legacySlices.add(slice);
+                } else if (Long.parseLong(slice) <= maxSlice) {
+                    slices.add(Long.parseLong(slice));
+                }
+            }
         }
-        log.info("临时数据补偿完成");
+        // 旧格式 HH:mm:ss 按字符串排序即按时间排序
+        legacySlices.sort(Comparator.naturalOrder());
+        slices.sort(Comparator.naturalOrder());
+        List<String> result = new ArrayList<>(legacySlices);
+        slices.forEach(slice -> result.add(String.valueOf(slice)));
+        return result;
     }
 }
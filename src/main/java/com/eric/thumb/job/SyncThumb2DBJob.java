@@ -1,110 +1,243 @@
 package com.eric.thumb.job;
 
-import cn.hutool.core.collection.CollUtil;
-import cn.hutool.core.date.DateTime;
-import cn.hutool.core.date.DateUtil;
 import cn.hutool.core.text.StrPool;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
-import com.eric.thumb.mapper.BlogMapper;
-import com.eric.thumb.model.entity.Thumb;
+import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.constant.ThumbConstant;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.job.JobCoordinator;
 import com.eric.thumb.model.enums.ThumbTypeEnum;
-import com.eric.thumb.service.ThumbService;
 import com.eric.thumb.util.RedisKeyUtil;
+import com.eric.thumb.util.ThumbTimeSliceUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * 定时将 Redis 中的临时点赞数据同步到数据库
  *
+ * 按 HSCAN 分块流式读取临时点赞数据，内存占用与单个时间片的大小无关：
+ * 1. 每块折叠为 {@link ThumbBatchFold}，在一个事务内写 thumb 表和博客点赞数
+ * 2. 事务提交后才从这一块的字段中减去已落库的值，减到 0 的字段才删除，同步期间新写入的操作保留在差值中；
+ *    中途失败时剩余字段留给下一次同步或补偿任务
+ * 3. HSCAN 期间删除已经返回的字段不影响后续遍历
+ *
+ * 时间片按 epoch 编号（{@link ThumbTimeSliceUtil}），Redis 中持久化已落库的最大时间片作为水位，
+ * 每次从水位之后依次同步所有已封闭的时间片，落库延迟保持在一个时间片左右：
+ * 1. 时间片按顺序同步：同一 (userId, blogId) 在前后两个时间片中可能先点赞后取消，thumb 表的插入、删除不能交换顺序
+ * 2. 同一时间片内各块的字段互不相同，由线程池并行落库，在途块数有上限
+ * 3. 某个时间片失败时水位停在它之前，下一轮从它开始重试
+ * 4. 多副本下只有持有租约的节点同步（{@link JobCoordinator}），每块落库的事务内、推进水位时都校验防护令牌，
+ *    租约已被接管的旧节点事务回滚、推进失败后立即停止
+ *
  * @author Eric
  */
 @Component
 @Slf4j
 public class SyncThumb2DBJob {
 
-    @Resource
-    private ThumbService thumbService;
+    private static final String JOB_NAME = "thumb-sync";
 
     @Resource
-    private BlogMapper blogMapper;
+    private BatchProcessManager batchProcessManager;
 
     @Resource
     private RedisTemplate<String, Object> redisTemplate;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * 同步租约时长（毫秒），持有者每轮续约
+     */
+    @Value("${thumb.job.sync-lease-ms:60000}")
+    private long leaseMs;
+
+    /**
+     * 每块读取的字段数
+     */
+    @Value("${thumb.sync.chunk-size:1000}")
+    private int chunkSize;
+
+    /**
+     * 并行落库的线程数
+     */
+    @Value("${thumb.sync.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 每轮最多同步的时间片数，长时间停机后分多轮追平
+     */
+    @Value("${thumb.sync.max-slices-per-run:360}")
+    private int maxSlicesPerRun;
+
+    private ExecutorService syncExecutor;
+
+    @PostConstruct
+    public void start() {
+        syncExecutor = Executors.newFixedThreadPool(parallelism, Thread.ofPlatform().name("thumb-sync-", 0).daemon().factory());
+    }
+
+    @PreDestroy
+    public void stop() {
+        syncExecutor.shutdownNow();
+        jobCoordinator.release(JOB_NAME);
+    }
+
     @Scheduled(fixedRate = 10000)
-    @Transactional(rollbackFor = Exception.class)
     public void run() {
-        log.info("开始执行");
-        DateTime nowDate = DateUtil.date();
-        String date = DateUtil.format(nowDate, "HH:mm:") + (DateUtil.second(nowDate) / 10 - 1) * 10;
-        syncThumb2DBByDate(date);
-        log.info("临时数据同步完成");
+        Optional<JobCoordinator.Lease> lease = jobCoordinator.tryAcquire(JOB_NAME, Duration.ofMillis(leaseMs));
+        if (lease.isEmpty()) {
+            return;
+        }
+        jobCoordinator.fence(lease.get());
+        // 当前时间片之前的都已封闭
+        long sealedSlice = ThumbTimeSliceUtil.currentSlice() - 1;
+        String watermark = stringRedisTemplate.opsForValue().get(ThumbConstant.TEMP_THUMB_WATERMARK_KEY);
+        // 首次运行只同步上一个时间片，更早的旧数据交给补偿任务
+        long fromSlice = watermark == null ? sealedSlice : Long.parseLong(watermark) + 1;
+        long toSlice = Math.min(sealedSlice, fromSlice + maxSlicesPerRun - 1);
+        for (long slice = fromSlice; slice <= toSlice; slice++) {
+            // 一轮可能跨越多个租约周期，每个时间片前续约；中途过期后重新获得时令牌递增，需要重新推进
+            Optional<JobCoordinator.Lease> renewed = jobCoordinator.tryAcquire(JOB_NAME, Duration.ofMillis(leaseMs));
+            if (renewed.isEmpty()) {
+                log.warn("同步租约已被其他节点接管，停止本轮同步，已同步到时间片 {}", slice - 1);
+                return;
+            }
+            if (renewed.get().token() != lease.get().token()) {
+                lease = renewed;
+                jobCoordinator.fence(lease.get());
+            }
+            try {
+                syncThumb2DBByDate(String.valueOf(slice), lease.get());
+            } catch (Exception e) {
+                log.error("临时点赞时间片 {} 同步失败，下一轮重试", slice, e);
+                return;
+            }
+            Long advanced = stringRedisTemplate.execute(RedisLuaScriptConstant.TEMP_THUMB_WATERMARK_ADVANCE_SCRIPT,
+                    Arrays.asList(ThumbConstant.TEMP_THUMB_WATERMARK_KEY, JobCoordinator.fenceKey(JOB_NAME)),
+                    String.valueOf(slice), String.valueOf(lease.get().token()));
+            if (advanced != null && advanced == -2) {
+                log.warn("同步租约已被其他节点接管，停止本轮同步 token={}", lease.get().token());
+                return;
+            }
+        }
+        if (sealedSlice > toSlice) {
+            log.warn("临时点赞数据同步落后 {} 个时间片", sealedSlice - toSlice);
+        }
     }
 
-    public void syncThumb2DBByDate(String date) {
-        // 获取到临时点赞和取消点赞数据
-        // todo 如果数据量过大，可以分批读取数据
+    /**
+     * 同步一个时间片，所有块提交后返回，任一块失败时抛出异常
+     *
+     * @param lease 调用方持有的租约，已调用 {@link JobCoordinator#fence}，每块落库的事务内校验
+     */
+    public void syncThumb2DBByDate(String date, JobCoordinator.Lease lease) {
         String tempThumbKey = RedisKeyUtil.getTempThumbKey(date);
-        Map<Object, Object> allTempThumbMap = redisTemplate.opsForHash().entries(tempThumbKey);
-        boolean thumbMapEmpty = CollUtil.isEmpty(allTempThumbMap);
-
+        ScanOptions options = ScanOptions.scanOptions().count(chunkSize).build();
+        // 限制在途块数，内存占用与时间片大小无关
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        try (Cursor<Map.Entry<Object, Object>> cursor = redisTemplate.opsForHash().scan(tempThumbKey, options)) {
+            List<Map.Entry<Object, Object>> chunk = new ArrayList<>(chunkSize);
+            while (cursor.hasNext()) {
+                chunk.add(cursor.next());
+                if (chunk.size() >= chunkSize) {
+                    futures.add(submitChunk(tempThumbKey, chunk, lease, inFlight));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                futures.add(submitChunk(tempThumbKey, chunk, lease, inFlight));
+            }
+        } finally {
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+        }
+        int synced = futures.stream().mapToInt(CompletableFuture::join).sum();
+        if (synced > 0) {
+            log.info("临时点赞数据 {} 同步 {} 条", tempThumbKey, synced);
+        }
+    }
 
-        // 同步 点赞 到数据库
-        // 构建插入列表并收集blogId
-        Map<Long, Long> blogThumbCountMap = new HashMap<>();
-        if (thumbMapEmpty) {
-            return;
+    private CompletableFuture<Integer> submitChunk(String tempThumbKey, List<Map.Entry<Object, Object>> chunk,
+                                                   JobCoordinator.Lease lease, Semaphore inFlight) {
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("临时点赞数据同步被中断", e);
         }
-        ArrayList<Thumb> thumbList = new ArrayList<>();
-        LambdaQueryWrapper<Thumb> wrapper = new LambdaQueryWrapper<>();
-        boolean needRemove = false;
-        for (Object userIdBlogIdObj : allTempThumbMap.keySet()) {
-            String userIdBlogId = (String) userIdBlogIdObj;
+        return CompletableFuture.supplyAsync(() -> syncChunk(tempThumbKey, chunk, lease), syncExecutor)
+                .whenComplete((synced, e) -> inFlight.release());
+    }
+
+    /**
+     * 一块临时点赞数据落库，提交后从对应字段中减去已落库的值
+     *
+     * @return 处理的字段数
+     */
+    private int syncChunk(String tempThumbKey, List<Map.Entry<Object, Object>> chunk, JobCoordinator.Lease lease) {
+        ThumbBatchFold fold = new ThumbBatchFold(chunk.size());
+        // 字段、值交替排列，作为扣减脚本的参数
+        String[] fieldValues = new String[chunk.size() * 2];
+        int index = 0;
+        for (Map.Entry<Object, Object> entry : chunk) {
+            String userIdBlogId = (String) entry.getKey();
+            fieldValues[index++] = userIdBlogId;
+            fieldValues[index++] = entry.getValue().toString();
+
             String[] userIdAndBlogId = userIdBlogId.split(StrPool.COLON);
-            Long userId = Long.valueOf(userIdAndBlogId[0]);
-            Long blogId = Long.valueOf(userIdAndBlogId[1]);
+            long userId = Long.parseLong(userIdAndBlogId[0]);
+            long blogId = Long.parseLong(userIdAndBlogId[1]);
             // -1 取消点赞，1 点赞
-            Integer thumbType = Integer.valueOf(allTempThumbMap.get(userIdBlogId).toString());
+            int thumbType = Integer.parseInt(entry.getValue().toString());
             if (thumbType == ThumbTypeEnum.INCR.getValue()) {
-                Thumb thumb = new Thumb();
-                thumb.setUserId(userId);
-                thumb.setBlogId(blogId);
-                thumbList.add(thumb);
+                fold.add(userId, blogId, true);
             } else if (thumbType == ThumbTypeEnum.DECR.getValue()) {
-                // 拼接查询条件，批量删除
-
-                needRemove = true;
-                wrapper.or().eq(Thumb::getUserId, userId).eq(Thumb::getBlogId, blogId);
-            } else {
-                if (thumbType != ThumbTypeEnum.NON.getValue()) {
-                    log.warn("数据异常：{}", userId + "," + blogId + "," + thumbType);
-                }
-                continue;
+                fold.add(userId, blogId, false);
+            } else if (thumbType != ThumbTypeEnum.NON.getValue()) {
+                log.warn("数据异常：{}", userId + "," + blogId + "," + thumbType);
             }
-            // 计算点赞增量
-            blogThumbCountMap.put(blogId, blogThumbCountMap.getOrDefault(blogId, 0L) + thumbType);
-
         }
-        // 批量插入
-        thumbService.saveBatch(thumbList);
-        // 批量删除
-        if (needRemove) {
-            thumbService.remove(wrapper);
-        }
-        // 批量更新博客点赞量
-        if (!blogThumbCountMap.isEmpty()) {
-            blogMapper.batchUpdateThumbCount(blogThumbCountMap);
+
+        if (fold.pairCount() > 0) {
+            transactionTemplate.executeWithoutResult(status -> {
+                // 租约已被接管时抛出异常回滚，旧节点不会与新节点重复落库
+                jobCoordinator.checkFence(lease);
+                BatchProcessManager.PersistResult result = batchProcessManager.persistThumbs(fold);
+                batchProcessManager.updateBlogThumbCount(result.blogDeltas().toNonZeroMap());
+            });
         }
-        // 异步删除
-        Thread.startVirtualThread(() -> {
-            redisTemplate.delete(tempThumbKey);
-        });
+        stringRedisTemplate.execute(RedisLuaScriptConstant.TEMP_THUMB_SUBTRACT_SCRIPT,
+                Collections.singletonList(tempThumbKey), (Object[]) fieldValues);
+        return chunk.size();
     }
 
 }
@@ -1,93 +1,240 @@
 package com.eric.thumb.job;
 
-import com.google.common.collect.Sets;
+import cn.hutool.core.util.NumberUtil;
 import com.eric.thumb.constant.ThumbConstant;
 import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
+import com.eric.thumb.manager.job.JobCoordinator;
+import com.eric.thumb.manager.mq.ThumbEventBus;
+import com.eric.thumb.mapper.ThumbMapper;
+import com.eric.thumb.mapper.ThumbUserDigestMapper;
 import com.eric.thumb.model.entity.Thumb;
-import com.eric.thumb.service.ThumbService;
+import com.eric.thumb.model.entity.ThumbUserDigest;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.Cursor;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.ScanOptions;
-import org.springframework.pulsar.core.PulsarTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Optional;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 点赞数据对账任务
- * 
+ * 多副本下按 userId 哈希分片（{@link JobCoordinator}），每个节点只对账分给自己的用户
+ *
+ * 按 SCAN 分页流式处理，每页：
+ * 1. 先比较用户点赞摘要（Redis thumb:digest:{userId} 与 MySQL thumb_user_digest），一致的用户直接跳过，
+ *    对账的工作量与当天有变化的用户数成正比
+ * 2. 摘要不一致的用户，一次 pipeline 取回点赞 hash，值为 {@link ThumbConstant#UN_THUMB_CONSTANT} 的是未点赞缓存，不参与对账
+ * 3. 一条 IN 查询取回这些用户在 MySQL 中的点赞
+ * 4. 只比较 Redis 中已缓存的字段：Redis 已点赞而 MySQL 没有的发送补偿事件
+ * 5. 用 MySQL 中的点赞补齐这些用户的点赞 hash（已有字段以 Redis 为准），然后两边按当前数据重建摘要
+ *
+ * 回源缓存模式下点赞 hash 只按需加载了部分字段，与 MySQL 的全量摘要必然不一致；
+ * 第 5 步把摘要不一致的用户补齐为完整加载，之后由写入路径增量维护，下一次对账两边摘要可以直接比较
+ * （MySQL 没有摘要的老用户第一次也会走一遍完整比对）
+ * 各页在虚拟线程中并行处理，并发页数有上限
+ *
  * @author Eric
  */
 @Service
 @Slf4j
-public class ThumbReconcileJob {  
+public class ThumbReconcileJob {
+
+    private static final String UN_THUMB_VALUE = String.valueOf(ThumbConstant.UN_THUMB_CONSTANT);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
     @Resource
-    private RedisTemplate<String, Object> redisTemplate;
-  
-    @Resource  
-    private ThumbService thumbService;
-  
-    @Resource  
-    private PulsarTemplate<ThumbEvent> pulsarTemplate;
-  
-    /**  
-     * 定时任务入口（每天凌晨2点执行）  
-     */  
+    private ThumbMapper thumbMapper;
+
+    @Resource
+    private ThumbUserDigestMapper thumbUserDigestMapper;
+
+    @Resource
+    private ThumbDigestManager thumbDigestManager;
+
+    @Resource
+    private ThumbEventBus thumbEventBus;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * 每页用户数
+     */
+    @Value("${thumb.reconcile.page-size:500}")
+    private int pageSize;
+
+    /**
+     * 并行处理的页数
+     */
+    @Value("${thumb.reconcile.parallelism:4}")
+    private int parallelism;
+
+    /**
+     * 定时任务入口（每天凌晨2点执行）
+     */
     @Scheduled(cron = "0 0 2 * * ?")
-    public void run() {  
-        long startTime = System.currentTimeMillis();  
-  
-        // 1. 获取该分片下的所有用户ID  
-        Set<Long> userIds = new HashSet<>();
-        String pattern = ThumbConstant.USER_THUMB_KEY_PREFIX + "*";
-        try (Cursor<String> cursor = redisTemplate.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
-            while (cursor.hasNext()) {  
-                String key = cursor.next();  
-                Long userId = Long.valueOf(key.replace(ThumbConstant.USER_THUMB_KEY_PREFIX, ""));  
-                userIds.add(userId);  
-            }  
-        }  
-  
-        // 2. 逐用户比对  
-        userIds.forEach(userId -> {  
-            Set<Long> redisBlogIds = redisTemplate.opsForHash().keys(ThumbConstant.USER_THUMB_KEY_PREFIX + userId).stream().map(obj -> Long.valueOf(obj.toString())).collect(Collectors.toSet());
-            Set<Long> mysqlBlogIds = Optional.ofNullable(thumbService.lambdaQuery()
-                            .eq(Thumb::getUserId, userId)
-                            .list()  
-                    ).orElse(new ArrayList<>())
-                    .stream()  
-                    .map(Thumb::getBlogId)  
-                    .collect(Collectors.toSet());  
-  
-            // 3. 计算差异（Redis有但MySQL无）  
-            Set<Long> diffBlogIds = Sets.difference(redisBlogIds, mysqlBlogIds);
-  
-            // 4. 发送补偿事件  
-            sendCompensationEvents(userId, diffBlogIds);  
-        });  
-  
-        log.info("对账任务完成，耗时 {}ms", System.currentTimeMillis() - startTime);  
-    }  
-  
-    /**  
-     * 发送补偿事件到Pulsar  
-     */  
-    private void sendCompensationEvents(Long userId, Set<Long> blogIds) {  
-        blogIds.forEach(blogId -> {  
-            ThumbEvent thumbEvent = new ThumbEvent(userId, blogId, ThumbEvent.EventType.INCR, LocalDateTime.now());
-            pulsarTemplate.sendAsync("thumb-topic", thumbEvent)  
-                    .exceptionally(ex -> {  
-                        log.error("补偿事件发送失败: userId={}, blogId={}", userId, blogId, ex);  
-                        return null;  
-                    });  
-        });  
-    }  
+    public void run() {
+        long startTime = System.currentTimeMillis();
+        JobCoordinator.Assignment assignment = jobCoordinator.assignment();
+        Progress progress = new Progress(new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicInteger());
+
+        Semaphore permits = new Semaphore(parallelism);
+        // thumb:* 还会匹配到 thumb:temp:*、thumb:sync:* 等键，只保留 thumb:{userId}
+        String prefix = ThumbConstant.USER_THUMB_KEY_PREFIX;
+        ScanOptions options = ScanOptions.scanOptions().match(prefix + "*").count(pageSize).build();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+             Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            List<Long> page = new ArrayList<>(pageSize);
+            while (cursor.hasNext()) {
+                String suffix = cursor.next().substring(prefix.length());
+                if (!NumberUtil.isLong(suffix) || !assignment.owns(Long.parseLong(suffix))) {
+                    continue;
+                }
+                page.add(Long.parseLong(suffix));
+                if (page.size() >= pageSize) {
+                    submitPage(executor, permits, page, progress);
+                    page = new ArrayList<>(pageSize);
+                }
+            }
+            if (!page.isEmpty()) {
+                submitPage(executor, permits, page, progress);
+            }
+        }
+
+        log.info("对账任务完成，分片 {}/{}，用户 {} 个，摘要不一致 {} 个，补偿 {} 条，失败 {} 页，耗时 {}ms",
+                assignment.index(), assignment.total(), progress.users().get(), progress.changedUsers().get(),
+                progress.compensated().get(), progress.failedPages().get(), System.currentTimeMillis() - startTime);
+    }
+
+    private void submitPage(ExecutorService executor, Semaphore permits, List<Long> userIds, Progress progress) {
+        permits.acquireUninterruptibly();
+        executor.execute(() -> {
+            try {
+                List<Long> changedUserIds = filterChangedUsers(userIds);
+                if (!changedUserIds.isEmpty()) {
+                    progress.compensated().addAndGet(reconcilePage(changedUserIds));
+                    rebuildDigests(changedUserIds);
+                }
+                progress.users().addAndGet(userIds.size());
+                progress.changedUsers().addAndGet(changedUserIds.size());
+            } catch (Exception e) {
+                progress.failedPages().incrementAndGet();
+                log.error("点赞对账失败，用户 {} 个", userIds.size(), e);
+            } finally {
+                permits.release();
+            }
+        });
+    }
+
+    /**
+     * 比较摘要，返回 Redis 与 MySQL 摘要不一致（或 MySQL 还没有摘要）的用户
+     */
+    private List<Long> filterChangedUsers(List<Long> userIds) {
+        Map<Long, ThumbUserDigest> redisDigests = thumbDigestManager.getDigests(userIds);
+        Map<Long, ThumbUserDigest> mysqlDigests = new HashMap<>(userIds.size());
+        for (ThumbUserDigest digest : thumbUserDigestMapper.selectByUserIds(userIds)) {
+            mysqlDigests.put(digest.getUserId(), digest);
+        }
+        List<Long> changed = new ArrayList<>();
+        for (Long userId : userIds) {
+            if (!redisDigests.get(userId).equals(mysqlDigests.get(userId))) {
+                changed.add(userId);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 对账后按当前数据重建两边的摘要
+     */
+    private void rebuildDigests(List<Long> userIds) {
+        userIds.forEach(thumbDigestManager::rebuild);
+        thumbUserDigestMapper.rebuildByUserIds(userIds);
+    }
+
+    /**
+     * 对账一页用户，然后用 MySQL 中的点赞补齐这些用户的点赞 hash
+     *
+     * @return 发送的补偿事件数
+     */
+    private int reconcilePage(List<Long> userIds) {
+        // 1. 一次 pipeline 取回这一页用户的点赞 hash
+        List<Object> hashes = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : userIds) {
+                connection.hashCommands().hGetAll((ThumbConstant.USER_THUMB_KEY_PREFIX + userId).getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+
+        // 2. 一条 IN 查询取回 MySQL 中的点赞
+        Map<Long, List<Thumb>> mysqlThumbs = new HashMap<>(userIds.size());
+        Map<Long, Set<Long>> mysqlBlogIds = new HashMap<>(userIds.size());
+        for (Thumb thumb : thumbMapper.selectUserBlogPairs(userIds)) {
+            mysqlThumbs.computeIfAbsent(thumb.getUserId(), key -> new ArrayList<>()).add(thumb);
+            mysqlBlogIds.computeIfAbsent(thumb.getUserId(), key -> new HashSet<>()).add(thumb.getBlogId());
+        }
+
+        // 3. 只比较 Redis 已缓存的字段，Redis 已点赞而 MySQL 无的发送补偿事件
+        int compensated = 0;
+        for (int i = 0; i < userIds.size(); i++) {
+            Long userId = userIds.get(i);
+            @SuppressWarnings("unchecked")
+            Map<String, String> hash = (Map<String, String>) hashes.get(i);
+            if (hash == null || hash.isEmpty()) {
+                continue;
+            }
+            Set<Long> thumbed = mysqlBlogIds.getOrDefault(userId, Set.of());
+            for (Map.Entry<String, String> entry : hash.entrySet()) {
+                if (UN_THUMB_VALUE.equals(entry.getValue()) || !NumberUtil.isLong(entry.getKey())) {
+                    continue;
+                }
+                Long blogId = Long.valueOf(entry.getKey());
+                if (!thumbed.contains(blogId)) {
+                    sendCompensationEvent(userId, blogId);
+                    compensated++;
+                }
+            }
+        }
+
+        // 4. 补齐没有缓存的字段，重建后的 Redis 摘要覆盖用户的全部点赞，与 MySQL 摘要可比
+        if (!mysqlThumbs.isEmpty()) {
+            thumbDigestManager.load(mysqlThumbs);
+        }
+        return compensated;
+    }
+
+    private record Progress(AtomicLong users, AtomicLong changedUsers, AtomicLong compensated, AtomicInteger failedPages) {
+    }
+
+    /**
+     * 发送补偿事件到Pulsar
+     */
+    private void sendCompensationEvent(Long userId, Long blogId) {
+        ThumbEvent thumbEvent = new ThumbEvent(userId, blogId, ThumbEvent.EventType.INCR, LocalDateTime.now());
+        thumbEventBus.send(thumbEvent)
+                .exceptionally(ex -> {
+                    log.error("补偿事件发送失败: userId={}, blogId={}", userId, blogId, ex);
+                    return null;
+                });
+    }
 }
@@ -1,56 +1,66 @@
 package com.eric.thumb.listener;
 
-import cn.hutool.core.lang.Pair;
-import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
 import com.eric.thumb.listener.thumb.msg.ThumbEvent;
-import com.eric.thumb.mapper.BlogMapper;
-import com.eric.thumb.model.entity.Thumb;
-import com.eric.thumb.service.ThumbService;
+import com.eric.thumb.manager.batch.ThumbBatchBuffer;
+import com.eric.thumb.manager.mq.ThumbDeadLetterManager;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.pulsar.client.api.Message;
-import org.apache.pulsar.client.api.MessageId;
 import org.apache.pulsar.client.api.SubscriptionType;
 import org.apache.pulsar.common.schema.SchemaType;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.pulsar.annotation.PulsarListener;
+import org.springframework.pulsar.listener.AckMode;
+import org.springframework.pulsar.listener.Acknowledgement;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.stream.Collectors;
+import java.util.List;
 
 /**
  * 点赞事件消费者
  * 
  * @author Eric
  */
+@ConditionalOnProperty(prefix = "thumb.event-bus", name = "type", havingValue = "pulsar", matchIfMissing = true)
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ThumbConsumer {  
   
-    private final BlogMapper blogMapper;
-    private final ThumbService thumbService;
+    private final ThumbBatchBuffer bulkThumbBatchBuffer;
 
+    private final ThumbBatchBuffer hotThumbBatchBuffer;
 
-    @PulsarListener(topics = "thumb-dlq-topic")
-    public void consumerDlq(Message<ThumbEvent> message) {
-        MessageId messageId = message.getMessageId();
-        log.info("dlq message = {}", messageId);
-        log.info("消息 {} 已入库", messageId);
-        log.info("已通知相关人员 {} 处理消息 {}", "测试人员", messageId);
+    private final ThumbDeadLetterManager thumbDeadLetterManager;
+
+
+    // 死信队列：批量落表，由管理员触发重放
+    @PulsarListener(
+            subscriptionName = "thumb-dlq-subscription",
+            topics = "thumb-dlq-topic",
+            // 按原始字节接收，无法解码的消息也能落表
+            schemaType = SchemaType.BYTES,
+            batch = true
+    )
+    public void consumerDlq(List<Message<byte[]>> messages) {
+        log.warn("ThumbConsumer consumerDlq: {}", messages.size());
+        // 落表失败时抛出异常，整批重投
+        thumbDeadLetterManager.persist(messages);
     }
 
-    // 批量处理配置
+    // 批量通道：非热点博客，大批次追求吞吐量
     @PulsarListener(
             subscriptionName = "thumb-subscription",
-            topics = "thumb-topic",
-            schemaType = SchemaType.JSON,
+            topics = "${thumb.producer.topic:thumb-topic}",
+            // 不指定 schemaType，使用 ThumbSchemaConfig 注册的二进制 Schema（兼容旧的 JSON 消息）
             batch = true,
-            subscriptionType = SubscriptionType.Shared,
-//            consumerCustomizer = "thumbConsumerConfig",
+            // Key_Shared：同一 (userId, blogId) 槽位的消息只会投递给一个消费者，且保持发送顺序
+            subscriptionType = SubscriptionType.Key_Shared,
+            concurrency = "${thumb.consumer.bulk.concurrency:4}",
+            // 短超时接收，批次大小和刷出间隔由 AdaptiveBatchController 动态决定
+            consumerCustomizer = "batchConsumerConfig",
+            // 落库事务提交后手动确认
+            ackMode = AckMode.MANUAL,
             // 引用 NACK 重试策略
             negativeAckRedeliveryBackoff = "negativeAckRedeliveryBackoff",
             // 引用 ACK 超时重试策略
@@ -58,77 +68,27 @@ public class ThumbConsumer {
             // 引用死信队列策略
             deadLetterPolicy = "deadLetterPolicy"
     )
-    @Transactional(rollbackFor = Exception.class)
-    public void processBatch(List<Message<ThumbEvent>> messages) {
-        log.info("ThumbConsumer processBatch: {}", messages.size());  
-        Map<Long, Long> countMap = new ConcurrentHashMap<>();
-        List<Thumb> thumbs = new ArrayList<>();
-  
-        // 并行处理消息  
-        LambdaQueryWrapper<Thumb> wrapper = new LambdaQueryWrapper<>();
-        AtomicReference<Boolean> needRemove = new AtomicReference<>(false);
-  
-        // 提取事件并过滤无效消息  
-        List<ThumbEvent> events = messages.stream()  
-                .map(Message::getValue)  
-                .filter(Objects::nonNull)
-                .toList();  
-  
-  
-        // 按(userId, blogId)分组，并获取每个分组的最新事件  
-        Map<Pair<Long, Long>, ThumbEvent> latestEvents = events.stream()
-                .collect(Collectors.groupingBy(
-                        e -> Pair.of(e.getUserId(), e.getBlogId()),  
-                        Collectors.collectingAndThen(  
-                                Collectors.toList(),  
-                                list -> {  
-                                    // 按时间升序排序，取最后一个作为最新事件  
-                                    list.sort(Comparator.comparing(ThumbEvent::getEventTime));
-                                    if (list.size() % 2 == 0) {  
-                                        return null;  
-                                    }  
-                                    return list.get(list.size() - 1);  
-                                }  
-                        )  
-                ));  
-  
-        latestEvents.forEach((userBlogPair, event) -> {  
-            if (event == null) {  
-                return;  
-            }  
-            ThumbEvent.EventType finalAction = event.getType();  
-  
-            if (finalAction == ThumbEvent.EventType.INCR) {  
-                countMap.merge(event.getBlogId(), 1L, Long::sum);  
-                Thumb thumb = new Thumb();  
-                thumb.setBlogId(event.getBlogId());  
-                thumb.setUserId(event.getUserId());  
-                thumbs.add(thumb);  
-            } else {  
-                needRemove.set(true);  
-                wrapper.or().eq(Thumb::getUserId, event.getUserId()).eq(Thumb::getBlogId, event.getBlogId());  
-                countMap.merge(event.getBlogId(), -1L, Long::sum);  
-            }  
-        });  
-  
-        // 批量更新数据库  
-        if (needRemove.get()) {  
-            thumbService.remove(wrapper);  
-        }  
-        batchUpdateBlogs(countMap);  
-        batchInsertThumbs(thumbs);  
-    }  
-  
-    public void batchUpdateBlogs(Map<Long, Long> countMap) {  
-        if (!countMap.isEmpty()) {  
-            blogMapper.batchUpdateThumbCount(countMap);  
-        }  
-    }  
-  
-    public void batchInsertThumbs(List<Thumb> thumbs) {  
-        if (!thumbs.isEmpty()) {  
-            // 分批次插入  
-            thumbService.saveBatch(thumbs, 500);  
-        }  
-    }  
+    public void processBatch(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+        log.debug("ThumbConsumer processBatch: {}", messages.size());
+        // 只放入缓冲，由 ThumbBatchBuffer 按自适应批次折叠落库，提交成功后再确认
+        bulkThumbBatchBuffer.append(messages, acknowledgement);
+    }
+
+    // 热点通道：热点博客，小批次低延迟
+    @PulsarListener(
+            subscriptionName = "thumb-hot-subscription",
+            topics = "${thumb.producer.hot-topic:thumb-hot-topic}",
+            batch = true,
+            subscriptionType = SubscriptionType.Key_Shared,
+            concurrency = "${thumb.consumer.hot.concurrency:2}",
+            consumerCustomizer = "hotConsumerConfig",
+            ackMode = AckMode.MANUAL,
+            negativeAckRedeliveryBackoff = "negativeAckRedeliveryBackoff",
+            ackTimeoutRedeliveryBackoff = "ackTimeoutRedeliveryBackoff",
+            deadLetterPolicy = "deadLetterPolicy"
+    )
+    public void processHotBatch(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+        log.debug("ThumbConsumer processHotBatch: {}", messages.size());
+        hotThumbBatchBuffer.append(messages, acknowledgement);
+    }
 }
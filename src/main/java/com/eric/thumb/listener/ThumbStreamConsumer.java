@@ -0,0 +1,306 @@
+package com.eric.thumb.listener;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.util.NumberUtil;
+import com.eric.thumb.constant.ThumbConstant;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.job.JobCoordinator;
+import com.eric.thumb.mapper.ThumbConsumeWatermarkMapper;
+import com.eric.thumb.model.entity.ThumbConsumeWatermark;
+import com.eric.thumb.model.enums.ThumbTypeEnum;
+import com.eric.thumb.util.RedisKeyUtil;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 点赞事件 Stream 消费者（Redis Streams 写入模式，见 {@link com.eric.thumb.service.impl.ThumbServiceRedisStreamImpl}）
+ *
+ * 1. 每个分区 Stream 同一时刻只由一个节点消费：分区按 {@link JobCoordinator} 分给各节点，
+ *    消费前再获取分区租约，同一用户的事件按顺序落库；增加副本即可水平扩展
+ * 2. 接管分区时先认领（XPENDING + XCLAIM）原消费者未确认的事件并按顺序处理，再 XREADGROUP 读取新事件
+ * 3. 每批事件折叠后在一个事务中写 thumb 表、博客点赞数和消费水位（thumb_consume_watermark，
+ *    topic 为 Stream key），提交后再 XACK，并裁剪已确认的事件；
+ *    提交后确认前宕机导致的重复事件按水位跳过，不会重复计数
+ * 4. 落库失败时原地重试，不跳过事件，水位没有空洞
+ *
+ * @author Eric
+ */
+@Component
+@ConditionalOnProperty(prefix = "thumb.stream", name = "enabled", havingValue = "true")
+@Slf4j
+public class ThumbStreamConsumer {
+
+    private static final String JOB_NAME_PREFIX = "thumb-stream-";
+
+    private static final int POSITION_SIZE = 16;
+
+    private static final long RETRY_INTERVAL_MS = 1000;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private BatchProcessManager batchProcessManager;
+
+    @Resource
+    private ThumbConsumeWatermarkMapper thumbConsumeWatermarkMapper;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private JobCoordinator jobCoordinator;
+
+    /**
+     * Stream 分区数，需要与写入端一致
+     */
+    @Value("${thumb.stream.partitions:8}")
+    private int partitions;
+
+    /**
+     * 每次 XREADGROUP 读取的事件数
+     */
+    @Value("${thumb.stream.batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * XREADGROUP 阻塞时长（毫秒）
+     */
+    @Value("${thumb.stream.block-ms:500}")
+    private long blockMs;
+
+    /**
+     * 分区租约时长（毫秒），消费期间每批续约
+     */
+    @Value("${thumb.stream.lease-ms:30000}")
+    private long leaseMs;
+
+    private final Set<Integer> consuming = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean stopped;
+
+    /**
+     * 为分给当前节点、还没有在消费的分区启动消费线程
+     */
+    @Scheduled(fixedDelayString = "${thumb.stream.rebalance-ms:5000}")
+    public void rebalance() {
+        if (stopped) {
+            return;
+        }
+        JobCoordinator.Assignment assignment = jobCoordinator.assignment();
+        for (int partition = 0; partition < partitions; partition++) {
+            int current = partition;
+            if (assignment.owns(partition) && consuming.add(partition)) {
+                Thread.ofVirtual().name("thumb-stream-" + partition).start(() -> consume(current));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+    }
+
+    private void consume(int partition) {
+        String jobName = JOB_NAME_PREFIX + partition;
+        String streamKey = RedisKeyUtil.getThumbStreamKey(partition);
+        Consumer consumer = Consumer.from(ThumbConstant.THUMB_STREAM_GROUP, jobCoordinator.nodeId());
+        try {
+            if (!holds(jobName, partition)) {
+                return;
+            }
+            ensureGroup(streamKey);
+            byte[] applied = loadWatermark(streamKey);
+            log.info("开始消费点赞事件 Stream {}", streamKey);
+
+            // 1. 先处理原消费者未确认的事件
+            List<PendingMessage> pending;
+            while (!(pending = pendingOf(streamKey)).isEmpty()) {
+                RecordId[] ids = pending.stream().map(PendingMessage::getId).toArray(RecordId[]::new);
+                List<MapRecord<String, Object, Object>> claimed = new ArrayList<>(stringRedisTemplate.opsForStream().claim(streamKey,
+                        ThumbConstant.THUMB_STREAM_GROUP, consumer.getName(), XClaimOptions.minIdle(Duration.ZERO).ids(ids)));
+                claimed.sort(Comparator.comparingLong((MapRecord<String, Object, Object> record) -> record.getId().getTimestamp())
+                        .thenComparingLong(record -> record.getId().getSequence()));
+                applied = apply(jobName, partition, streamKey, claimed, applied);
+                // 已被删除的事件 XCLAIM 不会返回，一并确认
+                stringRedisTemplate.opsForStream().acknowledge(streamKey, ThumbConstant.THUMB_STREAM_GROUP, ids);
+            }
+
+            // 2. 读取新事件
+            StreamReadOptions options = StreamReadOptions.empty().count(batchSize).block(Duration.ofMillis(blockMs));
+            StreamOffset<String> offset = StreamOffset.create(streamKey, ReadOffset.lastConsumed());
+            while (!stopped && holds(jobName, partition)) {
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(consumer, options, offset);
+                if (records != null && !records.isEmpty()) {
+                    applied = apply(jobName, partition, streamKey, records, applied);
+                }
+            }
+        } catch (Exception e) {
+            log.error("点赞事件 Stream {} 消费中断，未确认的事件由下一个消费者认领", streamKey, e);
+        } finally {
+            jobCoordinator.release(jobName);
+            consuming.remove(partition);
+        }
+    }
+
+    /**
+     * 一批事件落库后确认
+     *
+     * @return 推进后的水位
+     */
+    private byte[] apply(String jobName, int partition, String streamKey,
+                         List<MapRecord<String, Object, Object>> records, byte[] applied) throws InterruptedException {
+        if (records.isEmpty()) {
+            return applied;
+        }
+        ThumbBatchFold fold = new ThumbBatchFold(records.size());
+        byte[] advanced = applied;
+        for (MapRecord<String, Object, Object> record : records) {
+            byte[] position = positionOf(record.getId());
+            if (advanced != null && Arrays.compareUnsigned(position, advanced) <= 0) {
+                // 已经落库但没有确认的事件
+                continue;
+            }
+            advanced = position;
+            Map<Object, Object> fields = record.getValue();
+            Object userId = fields.get("userId");
+            Object blogId = fields.get("blogId");
+            Object type = fields.get("type");
+            if (userId == null || blogId == null || type == null
+                    || !NumberUtil.isLong(userId.toString()) || !NumberUtil.isLong(blogId.toString())) {
+                log.warn("点赞事件格式错误，跳过：{} {}", record.getId(), fields);
+                continue;
+            }
+            fold.add(Long.parseLong(userId.toString()), Long.parseLong(blogId.toString()),
+                    Integer.parseInt(type.toString()) == ThumbTypeEnum.INCR.getValue());
+        }
+
+        if (advanced != applied) {
+            ThumbConsumeWatermark watermark = new ThumbConsumeWatermark();
+            watermark.setTopic(streamKey);
+            watermark.setSlot(0);
+            watermark.setPosition(advanced);
+            commitWithRetry(jobName, partition, fold, watermark);
+        }
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, ThumbConstant.THUMB_STREAM_GROUP, ids);
+        trim(streamKey, ids[ids.length - 1]);
+        return advanced;
+    }
+
+    /**
+     * 落库失败时原地重试，分区租约丢失时放弃（事件留给新的消费者）
+     */
+    private void commitWithRetry(String jobName, int partition, ThumbBatchFold fold, ThumbConsumeWatermark watermark)
+            throws InterruptedException {
+        while (true) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    if (fold.pairCount() > 0) {
+                        BatchProcessManager.PersistResult result = batchProcessManager.persistThumbs(fold);
+                        batchProcessManager.updateBlogThumbCount(result.blogDeltas().toNonZeroMap());
+                    }
+                    thumbConsumeWatermarkMapper.batchAdvance(List.of(watermark));
+                });
+                return;
+            } catch (Exception e) {
+                log.error("点赞事件 Stream {} 落库失败，{}ms 后重试", watermark.getTopic(), RETRY_INTERVAL_MS, e);
+                TimeUnit.MILLISECONDS.sleep(RETRY_INTERVAL_MS);
+                if (stopped || !holds(jobName, partition)) {
+                    throw new RuntimeException("点赞事件 Stream 分区租约已丢失", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 分区仍分给当前节点，并且持有（续约）分区租约
+     */
+    private boolean holds(String jobName, int partition) {
+        return jobCoordinator.assignment().owns(partition)
+                && jobCoordinator.tryAcquire(jobName, Duration.ofMillis(leaseMs)).isPresent();
+    }
+
+    private List<PendingMessage> pendingOf(String streamKey) {
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(streamKey, ThumbConstant.THUMB_STREAM_GROUP, Range.unbounded(), batchSize);
+        List<PendingMessage> messages = new ArrayList<>(pending.size());
+        pending.forEach(messages::add);
+        return messages;
+    }
+
+    /**
+     * 创建消费者组（Stream 不存在时一并创建），已存在时忽略
+     */
+    private void ensureGroup(String streamKey) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands()
+                    .xGroupCreate(streamKey.getBytes(StandardCharsets.UTF_8), ThumbConstant.THUMB_STREAM_GROUP,
+                            ReadOffset.from("0-0"), true));
+        } catch (Exception e) {
+            if (!ExceptionUtil.getRootCauseMessage(e).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 裁剪已确认的事件
+     */
+    private void trim(String streamKey, RecordId lastId) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                streamKey.getBytes(StandardCharsets.UTF_8),
+                "MINID".getBytes(StandardCharsets.UTF_8),
+                "~".getBytes(StandardCharsets.UTF_8),
+                lastId.getValue().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private byte[] loadWatermark(String streamKey) {
+        ThumbConsumeWatermark key = new ThumbConsumeWatermark();
+        key.setTopic(streamKey);
+        key.setSlot(0);
+        List<ThumbConsumeWatermark> rows = thumbConsumeWatermarkMapper.selectByKeys(List.of(key));
+        return rows.isEmpty() ? null : rows.get(0).getPosition();
+    }
+
+    /**
+     * 毫秒时间戳(8) + 序号(8)，大端无符号比较与 Stream 顺序一致
+     */
+    private static byte[] positionOf(RecordId id) {
+        return ByteBuffer.allocate(POSITION_SIZE)
+                .putLong(id.getTimestamp())
+                .putLong(id.getSequence())
+                .array();
+    }
+}
@@ -0,0 +1,92 @@
+package com.eric.thumb.listener.thumb.msg;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 点赞事件二进制编解码
+ *
+ * 定长 26 字节，布局如下（大端）：
+ * <pre>
+ * | version(1) | type(1) | userId(8) | blogId(8) | eventTime epoch millis(8) |
+ * </pre>
+ * version 从 1 开始，不会与 JSON 的首字节 '{' 冲突，因此可以和旧的 JSON 消息共存
+ * 长度不足、版本或类型未知的消息解码时抛出 {@link IllegalArgumentException}，按毒消息进入重试和死信队列，
+ * 不会被当作点赞或取消点赞处理
+ *
+ * @author Eric
+ */
+public class ThumbEventCodec {
+
+    public static final byte VERSION_1 = 1;
+
+    /**
+     * 单条事件编码后的字节数
+     */
+    public static final int ENCODED_SIZE = 1 + 1 + 8 + 8 + 8;
+
+    private static final byte TYPE_INCR = 1;
+
+    private static final byte TYPE_DECR = 2;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    public static byte[] encode(ThumbEvent event) {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_SIZE);
+        encode(event, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * 编码到指定缓冲区的当前位置
+     */
+    public static void encode(ThumbEvent event, ByteBuffer buffer) {
+        buffer.put(VERSION_1);
+        buffer.put(event.getType() == ThumbEvent.EventType.INCR ? TYPE_INCR : TYPE_DECR);
+        buffer.putLong(event.getUserId());
+        buffer.putLong(event.getBlogId());
+        LocalDateTime eventTime = event.getEventTime();
+        buffer.putLong(eventTime == null ? 0L : eventTime.atZone(ZONE).toInstant().toEpochMilli());
+    }
+
+    public static ThumbEvent decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * 从缓冲区的当前位置解码一条事件
+     */
+    public static ThumbEvent decode(ByteBuffer buffer) {
+        if (buffer.remaining() < ENCODED_SIZE) {
+            throw new IllegalArgumentException("点赞事件长度不足: " + buffer.remaining());
+        }
+        byte version = buffer.get();
+        if (version != VERSION_1) {
+            throw new IllegalArgumentException("不支持的点赞事件版本: " + version);
+        }
+        byte typeCode = buffer.get();
+        ThumbEvent.EventType type = switch (typeCode) {
+            case TYPE_INCR -> ThumbEvent.EventType.INCR;
+            case TYPE_DECR -> ThumbEvent.EventType.DECR;
+            default -> throw new IllegalArgumentException("未知的点赞事件类型: " + typeCode);
+        };
+        long userId = buffer.getLong();
+        long blogId = buffer.getLong();
+        long eventTimeMillis = buffer.getLong();
+        return ThumbEvent.builder()
+                .type(type)
+                .userId(userId)
+                .blogId(blogId)
+                .eventTime(eventTimeMillis == 0L ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(eventTimeMillis), ZONE))
+                .build();
+    }
+
+    /**
+     * 是否为旧的 JSON 格式
+     */
+    public static boolean isLegacyJson(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == '{';
+    }
+}
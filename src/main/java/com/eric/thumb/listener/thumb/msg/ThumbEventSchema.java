@@ -0,0 +1,63 @@
+package com.eric.thumb.listener.thumb.msg;
+
+import org.apache.pulsar.client.api.Schema;
+import org.apache.pulsar.common.schema.SchemaInfo;
+import org.apache.pulsar.common.schema.SchemaType;
+
+/**
+ * 点赞事件 Pulsar Schema
+ *
+ * 1. 写出：定长二进制格式，见 {@link ThumbEventCodec}
+ * 2. 读入：同时兼容二进制和旧的 JSON 格式，迁移期间两种消息可以混在同一个 topic 中
+ *
+ * Schema 类型声明为 BYTES，Broker 不会对它做兼容性校验，已注册 JSON Schema 的 topic 也可以直接使用
+ *
+ * @author Eric
+ */
+public class ThumbEventSchema implements Schema<ThumbEvent> {
+
+    public static final ThumbEventSchema INSTANCE = new ThumbEventSchema();
+
+    /**
+     * 旧格式的 JSON Schema，迁移期间写出 JSON 和解码旧消息都使用它
+     */
+    public static final Schema<ThumbEvent> LEGACY_JSON = Schema.JSON(ThumbEvent.class);
+
+    private static final SchemaInfo SCHEMA_INFO = SchemaInfo.builder()
+            .name("ThumbEvent")
+            .type(SchemaType.BYTES)
+            .schema(new byte[0])
+            .build();
+
+    private ThumbEventSchema() {
+    }
+
+    @Override
+    public byte[] encode(ThumbEvent message) {
+        return ThumbEventCodec.encode(message);
+    }
+
+    @Override
+    public ThumbEvent decode(byte[] bytes) {
+        if (ThumbEventCodec.isLegacyJson(bytes)) {
+            return LEGACY_JSON.decode(bytes);
+        }
+        return ThumbEventCodec.decode(bytes);
+    }
+
+    @Override
+    public ThumbEvent decode(byte[] bytes, byte[] schemaVersion) {
+        return decode(bytes);
+    }
+
+    @Override
+    public SchemaInfo getSchemaInfo() {
+        return SCHEMA_INFO;
+    }
+
+    @Override
+    public Schema<ThumbEvent> clone() {
+        // 无状态，直接复用
+        return this;
+    }
+}
@@ -1 +1,376 @@
- 
\ No newline at end of file
+package com.eric.thumb.manager;
+
+import cn.hutool.core.collection.ListUtil;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.eric.thumb.manager.batch.LongLongHashMap;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.cache.Item;
+import com.eric.thumb.manager.cache.TopK;
+import com.eric.thumb.mapper.BlogMapper;
+import com.eric.thumb.mapper.BlogThumbDeltaPendingMapper;
+import com.eric.thumb.mapper.BlogThumbCountShardMapper;
+import com.eric.thumb.mapper.ThumbMapper;
+import com.eric.thumb.mapper.ThumbUserDigestMapper;
+import com.eric.thumb.model.entity.BlogThumbCountShard;
+import com.eric.thumb.model.entity.BlogThumbDeltaPending;
+import com.eric.thumb.model.entity.Thumb;
+import com.eric.thumb.model.entity.ThumbUserDigest;
+import com.eric.thumb.util.ThumbDigestUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 点赞数据批量落库
+ * ThumbConsumer 和 SyncThumb2DBJob 共用的批量写数据库逻辑
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class BatchProcessManager {
+
+    @Resource
+    private ThumbMapper thumbMapper;
+
+    @Resource
+    private BlogMapper blogMapper;
+
+    @Resource
+    private BlogThumbCountShardMapper blogThumbCountShardMapper;
+
+    @Resource
+    private ThumbUserDigestMapper thumbUserDigestMapper;
+
+    @Resource
+    private BlogThumbDeltaPendingMapper blogThumbDeltaPendingMapper;
+
+    @Resource
+    private TopK hotKeyDetector;
+
+    @Resource
+    private MeterRegistry registry;
+
+    private Timer deleteTimer;
+
+    private Timer insertTimer;
+
+    private Timer countUpdateTimer;
+
+    private Timer shardUpdateTimer;
+
+    private Timer pendingTimer;
+
+    private Timer digestTimer;
+
+    /**
+     * 热点博客点赞数的分片数
+     */
+    @Value("${thumb.count.shard-slots:16}")
+    private int shardSlots;
+
+    /**
+     * 单条 DELETE 语句最多包含的 (userId, blogId) 数量
+     */
+    @Value("${thumb.db.delete-chunk-size:500}")
+    private int deleteChunkSize;
+
+    /**
+     * 单条 INSERT IGNORE 语句最多包含的记录数
+     */
+    @Value("${thumb.db.insert-chunk-size:1000}")
+    private int insertChunkSize;
+
+    @PostConstruct
+    public void initMetrics() {
+        deleteTimer = statementTimer("delete");
+        insertTimer = statementTimer("insert");
+        countUpdateTimer = statementTimer("count_update");
+        shardUpdateTimer = statementTimer("shard_update");
+        pendingTimer = statementTimer("pending_delta");
+        digestTimer = statementTimer("digest");
+    }
+
+    /**
+     * 将折叠后的一批点赞事件写入 thumb 表，调用方负责开启事务
+     * 用户点赞摘要在同一事务中更新；博客点赞增量按实际删除、插入的行计算，由调用方更新
+     * INSERT IGNORE 跳过的记录、删除时已经不存在的记录不计入摘要和点赞数，
+     * 重投、HSCAN 重复返回、对账补发的事件不会让点赞数偏离 thumb 表
+     */
+    public PersistResult persistThumbs(ThumbBatchFold fold) {
+        List<Thumb> thumbs = new ArrayList<>();
+        fold.forEachInsert((userId, blogId) -> thumbs.add(newThumb(userId, blogId)));
+        List<Thumb> removedThumbs = new ArrayList<>();
+        fold.forEachDelete((userId, blogId) -> removedThumbs.add(newThumb(userId, blogId)));
+
+        List<Thumb> removed = removeThumbs(removedThumbs);
+        List<Thumb> inserted = insertThumbs(thumbs);
+        applyUserDigests(inserted, removed);
+
+        LongLongHashMap blogDeltas = new LongLongHashMap(inserted.size() + removed.size());
+        for (Thumb thumb : inserted) {
+            blogDeltas.addTo(thumb.getBlogId(), 1);
+        }
+        for (Thumb thumb : removed) {
+            blogDeltas.addTo(thumb.getBlogId(), -1);
+        }
+        return new PersistResult(inserted.size() + removed.size(), blogDeltas);
+    }
+
+    /**
+     * 更新用户点赞摘要，只计入这个事务实际插入、删除的记录
+     */
+    private void applyUserDigests(List<Thumb> inserted, List<Thumb> removed) {
+        if (inserted.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        // 按 userId 排序写入，并发的批次以相同顺序锁摘要行，避免死锁
+        Map<Long, ThumbUserDigest> digests = new TreeMap<>();
+        for (Thumb thumb : inserted) {
+            addDigest(digests, thumb, 1);
+        }
+        for (Thumb thumb : removed) {
+            addDigest(digests, thumb, -1);
+        }
+        thumbUserDigestMapper.batchApply(digests.values());
+        digestTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private static void addDigest(Map<Long, ThumbUserDigest> digests, Thumb thumb, long delta) {
+        ThumbUserDigest digest = digests.computeIfAbsent(thumb.getUserId(), userId -> {
+            ThumbUserDigest empty = new ThumbUserDigest();
+            empty.setUserId(userId);
+            empty.setThumbCount(0L);
+            empty.setDigest1(0L);
+            empty.setDigest2(0L);
+            return empty;
+        });
+        digest.setThumbCount(digest.getThumbCount() + delta);
+        long hash = ThumbDigestUtil.hashOf(thumb.getBlogId());
+        digest.setDigest1(digest.getDigest1() ^ ThumbDigestUtil.digest1(hash));
+        digest.setDigest2(digest.getDigest2() ^ ThumbDigestUtil.digest2(hash));
+    }
+
+    /**
+     * 批量删除点赞记录
+     * 按 (userId, blogId) IN ((?,?),...) 分块删除，每块走唯一索引做范围查找；
+     * 删除前用 FOR UPDATE 锁住这一块中存在的记录，DELETE 删除的正好是锁住的这些，
+     * 与并发事务交错时也能准确知道删除了哪些 (userId, blogId)
+     *
+     * @param thumbs 只需要 userId、blogId
+     * @return 实际删除的记录
+     */
+    private List<Thumb> removeThumbs(List<Thumb> thumbs) {
+        if (thumbs.isEmpty()) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        List<Thumb> removed = new ArrayList<>(thumbs.size());
+        for (List<Thumb> chunk : ListUtil.partition(thumbs, deleteChunkSize)) {
+            List<Thumb> existing = thumbMapper.lockExistingPairs(chunk);
+            if (existing.isEmpty()) {
+                continue;
+            }
+            int deleted = thumbMapper.deleteByUserBlogPairs(existing);
+            if (deleted != existing.size()) {
+                // 记录已经加锁，不应出现；回滚整批，由调用方重试
+                throw new RuntimeException("点赞记录删除行数不一致，锁定 " + existing.size() + " 条，删除 " + deleted + " 条");
+            }
+            removed.addAll(existing);
+        }
+        deleteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return removed;
+    }
+
+    /**
+     * 批量插入点赞记录
+     * 多行 INSERT IGNORE 分块写入，(userId, blogId) 已存在的记录直接跳过，
+     * 重复投递的消息不会因唯一索引冲突导致整批回滚；
+     * 被跳过的记录不会使用这次分配的主键，插入后按主键查回，得到实际插入的记录
+     *
+     * @return 实际插入的记录
+     */
+    private List<Thumb> insertThumbs(List<Thumb> thumbs) {
+        if (thumbs.isEmpty()) {
+            return List.of();
+        }
+        for (Thumb thumb : thumbs) {
+            if (thumb.getId() == null) {
+                thumb.setId(IdWorker.getId());
+            }
+        }
+        long start = System.nanoTime();
+        List<Thumb> inserted = new ArrayList<>(thumbs.size());
+        for (List<Thumb> chunk : ListUtil.partition(thumbs, insertChunkSize)) {
+            int rows = thumbMapper.insertIgnoreBatch(chunk);
+            if (rows == chunk.size()) {
+                inserted.addAll(chunk);
+            } else if (rows > 0) {
+                Set<Long> insertedIds = new HashSet<>(thumbMapper.selectExistingIds(
+                        chunk.stream().map(Thumb::getId).toList()));
+                for (Thumb thumb : chunk) {
+                    if (insertedIds.contains(thumb.getId())) {
+                        inserted.add(thumb);
+                    }
+                }
+            }
+        }
+        insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (inserted.size() < thumbs.size()) {
+            log.info("点赞记录已存在，跳过 {} 条", thumbs.size() - inserted.size());
+        }
+        return inserted;
+    }
+
+    /**
+     * 批量更新博客点赞数
+     * 热点博客的增量写到 blog_thumb_count_shard 的随机槽位，不再集中更新同一行 blog；
+     * 分片由 BlogThumbCountFoldJob 定期合并回 blog.thumbCount
+     *
+     * @param countMap blogId -> 点赞增量
+     */
+    public void updateBlogThumbCount(Map<Long, Long> countMap) {
+        if (countMap.isEmpty()) {
+            return;
+        }
+        Set<String> hotBlogIds = hotKeyDetector.list().stream().map(Item::key).collect(Collectors.toSet());
+        Map<Long, Long> coldCountMap = new HashMap<>(countMap.size());
+        List<BlogThumbCountShard> shards = new ArrayList<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        countMap.forEach((blogId, delta) -> {
+            if (hotBlogIds.contains(blogId.toString())) {
+                BlogThumbCountShard shard = new BlogThumbCountShard();
+                shard.setBlogId(blogId);
+                shard.setSlot(random.nextInt(shardSlots));
+                shard.setThumbCount(delta);
+                shards.add(shard);
+            } else {
+                coldCountMap.put(blogId, delta);
+            }
+        });
+        if (!shards.isEmpty()) {
+            long start = System.nanoTime();
+            blogThumbCountShardMapper.batchAddThumbCount(shards);
+            shardUpdateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!coldCountMap.isEmpty()) {
+            long start = System.nanoTime();
+            blogMapper.batchUpdateThumbCount(coldCountMap);
+            countUpdateTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 把博客点赞增量记为待计入记录，需要与写 thumb 表在同一个事务中调用
+     * 事务提交后增量不再只存在于进程内存中，由 {@link #applyPendingDeltas} 计入博客点赞数
+     *
+     * @param blogDeltas blogId -> 点赞增量，为 0 的不记录
+     * @return 待计入记录的 id
+     */
+    public List<Long> recordPendingDeltas(LongLongHashMap blogDeltas) {
+        List<BlogThumbDeltaPending> rows = new ArrayList<>(blogDeltas.size());
+        blogDeltas.forEach((blogId, delta) -> {
+            if (delta != 0) {
+                BlogThumbDeltaPending row = new BlogThumbDeltaPending();
+                row.setId(IdWorker.getId());
+                row.setBlogId(blogId);
+                row.setDelta(delta);
+                rows.add(row);
+            }
+        });
+        if (rows.isEmpty()) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        for (List<BlogThumbDeltaPending> chunk : ListUtil.partition(rows, insertChunkSize)) {
+            blogThumbDeltaPendingMapper.batchInsert(chunk);
+        }
+        pendingTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return rows.stream().map(BlogThumbDeltaPending::getId).toList();
+    }
+
+    /**
+     * 把待计入记录合并进博客点赞数并删除，调用方负责开启事务
+     * 记录先加锁，已被其他事务计入并删除的不再返回，每条增量只计入一次
+     *
+     * @return 计入的记录数
+     */
+    public int applyPendingDeltas(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int applied = 0;
+        for (List<Long> chunk : ListUtil.partition(ids, insertChunkSize)) {
+            applied += applyPendingRows(blogThumbDeltaPendingMapper.selectByIdsForUpdate(chunk));
+        }
+        return applied;
+    }
+
+    /**
+     * 接管创建超过 ageSeconds 秒仍未计入的记录（写入它们的节点已崩溃或持续提交失败），调用方负责开启事务
+     * 跳过其他事务已锁定的记录，多个节点同时接管不会互相等待
+     *
+     * @return 计入的记录数，等于 limit 时可能还有剩余
+     */
+    public int applyStalePendingDeltas(long ageSeconds, int limit) {
+        return applyPendingRows(blogThumbDeltaPendingMapper.selectStaleForUpdate(ageSeconds, limit));
+    }
+
+    private int applyPendingRows(List<BlogThumbDeltaPending> rows) {
+        if (rows.isEmpty()) {
+            return 0;
+        }
+        Map<Long, Long> countMap = new HashMap<>(rows.size());
+        for (BlogThumbDeltaPending row : rows) {
+            countMap.merge(row.getBlogId(), row.getDelta(), Long::sum);
+        }
+        countMap.values().removeIf(delta -> delta == 0);
+        updateBlogThumbCount(countMap);
+        int deleted = blogThumbDeltaPendingMapper.deleteByIds(rows.stream().map(BlogThumbDeltaPending::getId).toList());
+        if (deleted != rows.size()) {
+            // 记录已经加锁，不应出现；回滚，由调用方重试
+            throw new RuntimeException("待计入点赞增量删除行数不一致，锁定 " + rows.size() + " 条，删除 " + deleted + " 条");
+        }
+        return rows.size();
+    }
+
+    private Timer statementTimer(String stage) {
+        return Timer.builder("thumb.db.statement")
+                .description("Duration of one batched thumb persistence stage")
+                .tag("stage", stage)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+    }
+
+    private Thumb newThumb(long userId, long blogId) {
+        Thumb thumb = new Thumb();
+        thumb.setUserId(userId);
+        thumb.setBlogId(blogId);
+        return thumb;
+    }
+
+    /**
+     * 一批点赞事件的实际写入结果
+     *
+     * @param rows       实际删除 + 插入的行数
+     * @param blogDeltas 按实际删除、插入的行计算的博客点赞增量，blogId -> 增量
+     */
+    public record PersistResult(int rows, LongLongHashMap blogDeltas) {
+    }
+}
@@ -0,0 +1,139 @@
+package com.eric.thumb.manager.batch;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * 自适应批次控制器（AIMD）
+ *
+ * 根据每次落库的提交耗时和积压情况，动态调整消费端的有效批次大小和刷出间隔：
+ * 1. 提交耗时超过目标值（或提交失败）：数据库有压力，批次大小减半、刷出间隔翻倍（乘性减）
+ * 2. 提交耗时正常：刷出间隔逐步缩短，降低低峰期的落库延迟；
+ *    若本次刷出时仍有积压（批次已满，或最老消息等待超过两倍刷出间隔），批次大小逐步增大（加性增）
+ *
+ * @author Eric
+ */
+public class AdaptiveBatchController {
+
+    private final Settings settings;
+
+    @Getter
+    private volatile int batchSize;
+
+    @Getter
+    private volatile long flushIntervalMs;
+
+    /**
+     * 最近一次刷出时最老消息的等待时间
+     */
+    @Getter
+    private volatile long lagMs;
+
+    /**
+     * 最近一次提交耗时
+     */
+    @Getter
+    private volatile long commitMs;
+
+    public AdaptiveBatchController(String lane, Settings settings, MeterRegistry registry) {
+        this.settings = settings;
+        this.batchSize = settings.initialBatchSize;
+        this.flushIntervalMs = settings.initialFlushIntervalMs;
+        Gauge.builder("thumb.consumer.batch.size", this, AdaptiveBatchController::getBatchSize)
+                .description("Current adaptive batch size of the thumb consumer")
+                .tag("lane", lane)
+                .register(registry);
+        Gauge.builder("thumb.consumer.flush.interval", this, AdaptiveBatchController::getFlushIntervalMs)
+                .description("Current adaptive flush interval of the thumb consumer in milliseconds")
+                .tag("lane", lane)
+                .register(registry);
+        Gauge.builder("thumb.consumer.lag", this, AdaptiveBatchController::getLagMs)
+                .description("Age of the oldest thumb event in the last flushed batch in milliseconds")
+                .tag("lane", lane)
+                .register(registry);
+        Gauge.builder("thumb.consumer.commit.time", this, AdaptiveBatchController::getCommitMs)
+                .description("Duration of the last thumb batch commit in milliseconds")
+                .tag("lane", lane)
+                .register(registry);
+    }
+
+    /**
+     * 一次刷出提交成功
+     *
+     * @param size     本次刷出的消息数
+     * @param commitMs 提交耗时
+     * @param lagMs    最老消息的等待时间
+     */
+    public synchronized void onCommit(int size, long commitMs, long lagMs) {
+        this.commitMs = commitMs;
+        this.lagMs = lagMs;
+        if (commitMs > settings.targetCommitMs) {
+            decrease();
+            return;
+        }
+        flushIntervalMs = Math.max(settings.minFlushIntervalMs, flushIntervalMs - settings.flushIntervalStepMs);
+        boolean backlog = size >= batchSize || lagMs > flushIntervalMs * 2;
+        if (backlog) {
+            batchSize = Math.min(settings.maxBatchSize, batchSize + settings.batchSizeStep);
+        }
+    }
+
+    /**
+     * 一次刷出提交失败，按数据库过载处理
+     */
+    public synchronized void onFailure(long lagMs) {
+        this.lagMs = lagMs;
+        decrease();
+    }
+
+    private void decrease() {
+        batchSize = Math.max(settings.minBatchSize, batchSize / 2);
+        flushIntervalMs = Math.min(settings.maxFlushIntervalMs, flushIntervalMs * 2);
+    }
+
+    /**
+     * 控制参数
+     */
+    @Builder
+    @Getter
+    public static class Settings {
+
+        @Builder.Default
+        private final int minBatchSize = 100;
+
+        @Builder.Default
+        private final int maxBatchSize = 5000;
+
+        @Builder.Default
+        private final int initialBatchSize = 1000;
+
+        /**
+         * 加性增步长
+         */
+        @Builder.Default
+        private final int batchSizeStep = 100;
+
+        @Builder.Default
+        private final long minFlushIntervalMs = 50;
+
+        @Builder.Default
+        private final long maxFlushIntervalMs = 5000;
+
+        @Builder.Default
+        private final long initialFlushIntervalMs = 1000;
+
+        /**
+         * 提交正常时每次缩短的刷出间隔
+         */
+        @Builder.Default
+        private final long flushIntervalStepMs = 50;
+
+        /**
+         * 目标提交耗时，超过即认为数据库有压力
+         */
+        @Builder.Default
+        private final long targetCommitMs = 200;
+    }
+}
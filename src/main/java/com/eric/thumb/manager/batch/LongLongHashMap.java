@@ -0,0 +1,127 @@
+package com.eric.thumb.manager.batch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * long -> long 开放寻址哈希表（线性探测）
+ * 用于批量消费时按 blogId 累加点赞增量，避免 Map<Long, Long> 的装箱开销
+ *
+ * 非线程安全，只在单个线程内使用
+ *
+ * @author Eric
+ */
+public class LongLongHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    private long[] values;
+
+    private boolean[] used;
+
+    private int size;
+
+    private int mask;
+
+    public LongLongHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 在 key 对应的值上累加 delta，key 不存在时视为 0
+     */
+    public void addTo(long key, long delta) {
+        int index = indexOf(key);
+        if (used[index]) {
+            values[index] += delta;
+            return;
+        }
+        used[index] = true;
+        keys[index] = key;
+        values[index] = delta;
+        if (++size > keys.length * LOAD_FACTOR) {
+            resize();
+        }
+    }
+
+    public long get(long key) {
+        int index = indexOf(key);
+        return used[index] ? values[index] : 0L;
+    }
+
+    public boolean containsKey(long key) {
+        return used[indexOf(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void forEach(LongLongConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * 转为普通 Map，忽略值为 0 的项（用于传给 MyBatis）
+     */
+    public Map<Long, Long> toNonZeroMap() {
+        Map<Long, Long> map = new HashMap<>(size * 2);
+        forEach((key, value) -> {
+            if (value != 0) {
+                map.put(key, value);
+            }
+        });
+        return map;
+    }
+
+    private int indexOf(long key) {
+        int index = mix(key) & mask;
+        while (used[index] && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        int capacity = oldKeys.length << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int index = indexOf(oldKeys[i]);
+                used[index] = true;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    @FunctionalInterface
+    public interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+}
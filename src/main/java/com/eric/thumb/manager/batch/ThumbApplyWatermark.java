@@ -0,0 +1,172 @@
+package com.eric.thumb.manager.batch;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.mapper.ThumbConsumeWatermarkMapper;
+import com.eric.thumb.model.entity.ThumbConsumeWatermark;
+import com.eric.thumb.util.ThumbSlotUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageIdAdv;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 点赞事件消费水位（幂等层）
+ *
+ * 博客点赞数的增量不是幂等的：事务提交后 ack 失败，消息重投就会重复计数。
+ * 这里按 (分区 topic, 槽位) 记录已经落库的最大消息位置，水位与 thumb 表、待计入的点赞增量在同一个事务中推进，
+ * 重投的消息位置不大于水位时直接跳过，应用与跳过是原子的
+ *
+ * 为什么按槽位而不是按分区：Key_Shared 下同一分区的消息按 key 分给多个消费者并行处理，
+ * 分区内的最大位置并不代表更小的位置都已处理；而同一槽位只会投递给一个消费者且保持顺序，
+ * 槽位内的水位是单调的
+ *
+ * 1. 本地缓存每个 (topic, slot) 已交给点赞数累加器的最大位置（包括尚未提交的），避免重复计入
+ * 2. 本地没有缓存的 key，以及重投的消息（redeliveryCount > 0），先从数据库刷新水位，
+ *    覆盖其他实例处理过、因消费者切换而重投过来的消息
+ * 3. 水位必须没有空洞：落库失败时原地重试而不是 nack，保证更大位置提交时更小位置已经提交
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbApplyWatermark {
+
+    private static final int POSITION_SIZE = 20;
+
+    private final ThumbConsumeWatermarkMapper thumbConsumeWatermarkMapper;
+
+    private final Counter skippedCounter;
+
+    private final Map<WatermarkKey, byte[]> applied = new ConcurrentHashMap<>();
+
+    public ThumbApplyWatermark(ThumbConsumeWatermarkMapper thumbConsumeWatermarkMapper, MeterRegistry registry) {
+        this.thumbConsumeWatermarkMapper = thumbConsumeWatermarkMapper;
+        this.skippedCounter = Counter.builder("thumb.consumer.duplicate.count")
+                .description("Redelivered thumb events skipped because they were already applied")
+                .register(registry);
+    }
+
+    /**
+     * 过滤已经计入点赞数的消息，并把保留下来的消息位置记入本地水位
+     * 同一 (topic, slot) 的消息需要按到达顺序传入
+     *
+     * @param messages 已成功解码的消息
+     */
+    public Filtered filter(List<Received> messages) {
+        refresh(messages);
+
+        List<Received> accepted = new ArrayList<>(messages.size());
+        Map<WatermarkKey, byte[]> advanced = new HashMap<>();
+        for (Received message : messages) {
+            WatermarkKey key = keyOf(message);
+            byte[] position = positionOf(message.message());
+            byte[] current = applied.get(key);
+            if (current != null && Arrays.compareUnsigned(position, current) <= 0) {
+                skippedCounter.increment();
+                continue;
+            }
+            applied.put(key, position);
+            advanced.put(key, position);
+            accepted.add(message);
+        }
+        if (accepted.size() < messages.size()) {
+            log.info("跳过 {} 条已计入点赞数的重投消息", messages.size() - accepted.size());
+        }
+        return new Filtered(accepted, advanced);
+    }
+
+    /**
+     * 放弃一批已记入本地水位、但最终没有提交的位置，下次从数据库重新加载
+     */
+    public void forget(Collection<WatermarkKey> keys) {
+        keys.forEach(applied::remove);
+    }
+
+    /**
+     * 推进数据库中的水位，需要与写 thumb 表、待计入点赞增量在同一个事务中调用
+     */
+    public void persist(Map<WatermarkKey, byte[]> watermarks) {
+        if (watermarks.isEmpty()) {
+            return;
+        }
+        List<ThumbConsumeWatermark> rows = new ArrayList<>(watermarks.size());
+        watermarks.forEach((key, position) -> rows.add(toEntity(key, position)));
+        thumbConsumeWatermarkMapper.batchAdvance(rows);
+    }
+
+    private void refresh(List<Received> messages) {
+        Set<WatermarkKey> keys = new LinkedHashSet<>();
+        for (Received message : messages) {
+            WatermarkKey key = keyOf(message);
+            if (message.message().getRedeliveryCount() > 0 || !applied.containsKey(key)) {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+        List<ThumbConsumeWatermark> query = keys.stream().map(key -> toEntity(key, null)).toList();
+        for (ThumbConsumeWatermark row : thumbConsumeWatermarkMapper.selectByKeys(query)) {
+            applied.merge(new WatermarkKey(row.getTopic(), row.getSlot()), row.getPosition(), ThumbApplyWatermark::max);
+        }
+    }
+
+    private static WatermarkKey keyOf(Received message) {
+        ThumbEvent event = message.event();
+        return new WatermarkKey(message.message().getTopicName(), ThumbSlotUtil.slotOf(event.getUserId(), event.getBlogId()));
+    }
+
+    /**
+     * ledgerId(8) + entryId(8) + batchIndex(4)，大端无符号比较与消息顺序一致
+     * batchIndex 非批量消息为 -1，翻转符号位后参与无符号比较
+     */
+    private static byte[] positionOf(Message<ThumbEvent> message) {
+        MessageIdAdv messageId = (MessageIdAdv) message.getMessageId();
+        return ByteBuffer.allocate(POSITION_SIZE)
+                .putLong(messageId.getLedgerId())
+                .putLong(messageId.getEntryId())
+                .putInt(messageId.getBatchIndex() ^ Integer.MIN_VALUE)
+                .array();
+    }
+
+    private static byte[] max(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b) >= 0 ? a : b;
+    }
+
+    private static ThumbConsumeWatermark toEntity(WatermarkKey key, byte[] position) {
+        ThumbConsumeWatermark watermark = new ThumbConsumeWatermark();
+        watermark.setTopic(key.topic());
+        watermark.setSlot(key.slot());
+        watermark.setPosition(position);
+        return watermark;
+    }
+
+    public record WatermarkKey(String topic, int slot) {
+    }
+
+    /**
+     * 已解码的消息，避免重复反序列化
+     */
+    public record Received(Message<ThumbEvent> message, ThumbEvent event) {
+    }
+
+    /**
+     * @param accepted 需要应用的消息
+     * @param advanced 这些消息推进后的水位
+     */
+    public record Filtered(List<Received> accepted, Map<WatermarkKey, byte[]> advanced) {
+    }
+}
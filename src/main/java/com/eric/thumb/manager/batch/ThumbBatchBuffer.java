@@ -0,0 +1,342 @@
+package com.eric.thumb.manager.batch;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.manager.BatchProcessManager;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.apache.pulsar.client.api.MessageId;
+import org.springframework.pulsar.listener.Acknowledgement;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 消费端落库缓冲
+ *
+ * Pulsar 按较短的接收超时把消息交给监听器，监听器只负责放进缓冲；
+ * 缓冲达到 {@link AdaptiveBatchController} 给出的批次大小，或最老消息等待超过刷出间隔时，统一折叠并在一个事务内落库
+ *
+ * 1. 同一时刻只有一个线程落库，缓冲满时监听线程在刷出锁上等待，形成背压
+ * 2. 本通道在一个事务中写 thumb 表，并把按实际写入的行计算的点赞数增量记为待计入记录，
+ *    记录 id 交给 {@link ThumbCountAccumulator} 合并进博客点赞数，点赞数提交成功后才确认（ack）消息
+ * 3. 折叠前按 {@link ThumbApplyWatermark} 跳过已经落库的重投消息，水位与 thumb 表、待计入增量在同一个事务中推进；
+ *    按{@link ThumbPairClock} 跳过早于已应用事件的消息；
+ *    写入失败时退避后原地重试（不 nack），保证水位没有空洞。无法解码的消息单独 nack，超过重试次数进入死信队列
+ * 4. 各监听线程按到达顺序追加，Key_Shared 保证同一 key 只由一个线程接收，折叠时同一 (userId, blogId) 仍然有序；
+ *    热点、批量两条通道之间不保证顺序，由 {@link ThumbPairClock} 按事件时间处理
+ * 5. 指标（tag lane）：消费事件数、批次大小分布、折叠比、缓冲积压，
+ *    以及从 {@link ThumbEvent#getEventTime()} 到点赞数提交的端到端延迟
+ *
+ * @author Eric
+ */
+@Slf4j
+public class ThumbBatchBuffer {
+
+    private static final long RETRY_INITIAL_BACKOFF_MS = 100;
+
+    private static final long RETRY_MAX_BACKOFF_MS = 5000;
+
+    private final String lane;
+
+    private final AdaptiveBatchController controller;
+
+    private final BatchProcessManager batchProcessManager;
+
+    private final ThumbCountAccumulator thumbCountAccumulator;
+
+    private final ThumbApplyWatermark thumbApplyWatermark;
+
+    private final ThumbPairClock thumbPairClock;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Timer commitTimer;
+
+    private final Counter eventCounter;
+
+    private final DistributionSummary batchSizeSummary;
+
+    private final DistributionSummary foldRatioSummary;
+
+    private final Timer endToEndTimer;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private List<Pending> pending = new ArrayList<>();
+
+    private int pendingSize;
+
+    /**
+     * 缓冲中最老消息进入缓冲的时间
+     */
+    private long oldestAppendTime;
+
+    private ScheduledExecutorService flusher;
+
+    public ThumbBatchBuffer(String lane,
+                            AdaptiveBatchController controller,
+                            BatchProcessManager batchProcessManager,
+                            ThumbCountAccumulator thumbCountAccumulator,
+                            ThumbApplyWatermark thumbApplyWatermark,
+                            ThumbPairClock thumbPairClock,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry registry) {
+        this.lane = lane;
+        this.controller = controller;
+        this.batchProcessManager = batchProcessManager;
+        this.thumbCountAccumulator = thumbCountAccumulator;
+        this.thumbApplyWatermark = thumbApplyWatermark;
+        this.thumbPairClock = thumbPairClock;
+        this.transactionTemplate = transactionTemplate;
+        this.commitTimer = Timer.builder("thumb.consumer.commit")
+                .description("Duration of persisting one folded thumb batch")
+                .tag("lane", lane)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        this.eventCounter = Counter.builder("thumb.consumer.events")
+                .description("Thumb events consumed and persisted")
+                .tag("lane", lane)
+                .register(registry);
+        this.batchSizeSummary = DistributionSummary.builder("thumb.consumer.batch.messages")
+                .description("Messages in one flushed thumb batch")
+                .tag("lane", lane)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.foldRatioSummary = DistributionSummary.builder("thumb.consumer.fold.ratio")
+                .description("Thumb events applied per thumb row written in one batch")
+                .tag("lane", lane)
+                .register(registry);
+        this.endToEndTimer = Timer.builder("thumb.consumer.e2e.latency")
+                .description("Delay from thumb event time to blog thumb count commit")
+                .tag("lane", lane)
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        Gauge.builder("thumb.consumer.buffered", this, ThumbBatchBuffer::bufferedSize)
+                .description("Messages waiting in the consumer batch buffer")
+                .tag("lane", lane)
+                .register(registry);
+    }
+
+    public void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("thumb-" + lane + "-batch-flusher").daemon().factory());
+        flusher.scheduleWithFixedDelay(this::flushIfExpired, 10, 10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 未确认的消息在消费者关闭后由 Pulsar 重投，这里不再落库
+     */
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    /**
+     * 追加一批消息，缓冲已满时在当前线程落库
+     */
+    public void append(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        boolean full;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestAppendTime = System.currentTimeMillis();
+            }
+            pending.add(new Pending(messages, acknowledgement));
+            pendingSize += messages.size();
+            full = pendingSize >= controller.getBatchSize();
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    private synchronized int bufferedSize() {
+        return pendingSize;
+    }
+
+    private void flushIfExpired() {
+        boolean expired;
+        synchronized (this) {
+            expired = !pending.isEmpty()
+                    && System.currentTimeMillis() - oldestAppendTime >= controller.getFlushIntervalMs();
+        }
+        if (expired) {
+            try {
+                flush();
+            } catch (Exception e) {
+                log.error("点赞批次定时刷出失败 lane={}", lane, e);
+            }
+        }
+    }
+
+    private void flush() {
+        flushLock.lock();
+        try {
+            List<Pending> batch;
+            int size;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                batch = pending;
+                size = pendingSize;
+                pending = new ArrayList<>();
+                pendingSize = 0;
+            }
+
+            List<ThumbApplyWatermark.Received> received = new ArrayList<>(size);
+            long oldestPublishTime = Long.MAX_VALUE;
+            for (Pending entry : batch) {
+                for (Message<ThumbEvent> message : entry.messages()) {
+                    oldestPublishTime = Math.min(oldestPublishTime, message.getPublishTime());
+                    ThumbEvent event = decode(message);
+                    if (event == null) {
+                        // 无法解码的消息单独 nack，超过重试次数后进入死信队列
+                        entry.acknowledgement().nack(message.getMessageId());
+                        entry.poisoned().add(message.getMessageId());
+                        continue;
+                    }
+                    received.add(new ThumbApplyWatermark.Received(message, event));
+                }
+            }
+            long lagMs = Math.max(0, System.currentTimeMillis() - oldestPublishTime);
+
+            // 跳过已经落库的重投消息
+            ThumbApplyWatermark.Filtered filtered = thumbApplyWatermark.filter(received);
+            // 跳过早于已应用事件的消息（来自另一条通道的积压），它们只推进水位、随批次确认
+            List<ThumbApplyWatermark.Received> current = thumbPairClock.filter(filtered.accepted(), ThumbApplyWatermark.Received::event);
+            ThumbBatchFold fold = new ThumbBatchFold(current.size());
+            long[] eventTimes = new long[filtered.accepted().size()];
+            int eventCount = 0;
+            for (ThumbApplyWatermark.Received message : current) {
+                fold.add(message.event());
+            }
+            for (ThumbApplyWatermark.Received message : filtered.accepted()) {
+                if (message.event().getEventTime() != null) {
+                    eventTimes[eventCount++] = message.event().getEventTime()
+                            .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                }
+            }
+
+            Commit commit;
+            try {
+                commit = persistWithRetry(fold, filtered.advanced(), size, lagMs);
+            } catch (InterruptedException e) {
+                // 停机：消息不确认，由 Pulsar 重投；本地水位作废，下次从数据库加载
+                thumbApplyWatermark.forget(filtered.advanced().keySet());
+                Thread.currentThread().interrupt();
+                return;
+            }
+            long commitNanos = commit.nanos();
+            commitTimer.record(commitNanos, TimeUnit.NANOSECONDS);
+            eventCounter.increment(filtered.accepted().size());
+            batchSizeSummary.record(size);
+            if (commit.rows() > 0) {
+                foldRatioSummary.record((double) filtered.accepted().size() / commit.rows());
+            }
+            int eventTimeCount = eventCount;
+            thumbCountAccumulator.add(commit.pendingIds(), () -> {
+                batch.forEach(Pending::acknowledge);
+                recordEndToEnd(eventTimes, eventTimeCount);
+            });
+            controller.onCommit(size, TimeUnit.NANOSECONDS.toMillis(commitNanos), lagMs);
+            log.info("ThumbBatchBuffer flush lane={}, messages={}, pairs={}, rows={}, cost={}ms",
+                    lane, size, fold.pairCount(), commit.rows(), TimeUnit.NANOSECONDS.toMillis(commitNanos));
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 在一个事务中写入 thumb 表、待计入的点赞增量和推进后的消费水位，失败时退避后原地重试，保证消费水位没有空洞
+     * 应用与跳过是原子的：事务提交前崩溃，重投的消息不会被水位跳过；提交后崩溃，增量已经持久化，重投的消息被跳过
+     *
+     * @param advanced 这批消息推进后的消费水位
+     *
+     * @return 写入的行数、待计入记录 id 和最后一次成功提交的耗时
+     */
+    private Commit persistWithRetry(ThumbBatchFold fold, Map<ThumbApplyWatermark.WatermarkKey, byte[]> advanced,
+                                    int size, long lagMs) throws InterruptedException {
+        long backoffMs = RETRY_INITIAL_BACKOFF_MS;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                Commit commit = transactionTemplate.execute(status -> {
+                    BatchProcessManager.PersistResult result = batchProcessManager.persistThumbs(fold);
+                    List<Long> pendingIds = batchProcessManager.recordPendingDeltas(result.blogDeltas());
+                    thumbApplyWatermark.persist(advanced);
+                    return new Commit(result.rows(), pendingIds, 0);
+                });
+                return commit == null
+                        ? new Commit(0, List.of(), System.nanoTime() - start)
+                        : new Commit(commit.rows(), commit.pendingIds(), System.nanoTime() - start);
+            } catch (Exception e) {
+                log.error("点赞批次落库失败，{}ms 后重试 lane={}, size={}", backoffMs, lane, size, e);
+                controller.onFailure(lagMs);
+                Thread.sleep(backoffMs);
+                backoffMs = Math.min(backoffMs * 2, RETRY_MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * 点赞数提交后记录端到端延迟，只在累加器的刷出线程中调用
+     */
+    private void recordEndToEnd(long[] eventTimes, int count) {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            endToEndTimer.record(Math.max(0, now - eventTimes[i]), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private ThumbEvent decode(Message<ThumbEvent> message) {
+        try {
+            return message.getValue();
+        } catch (Exception e) {
+            log.warn("点赞消息解码失败 messageId={}", message.getMessageId(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param rows       thumb 表实际删除和插入的行数
+     * @param pendingIds 与 thumb 表同一事务写入的待计入点赞增量记录
+     * @param nanos      提交耗时
+     */
+    private record Commit(int rows, List<Long> pendingIds, long nanos) {
+    }
+
+    /**
+     * @param poisoned 已单独 nack 的消息
+     */
+    private record Pending(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement, Set<MessageId> poisoned) {
+
+        Pending(List<Message<ThumbEvent>> messages, Acknowledgement acknowledgement) {
+            this(messages, acknowledgement, new HashSet<>());
+        }
+
+        void acknowledge() {
+            acknowledgement.acknowledge(messages.stream()
+                    .map(Message::getMessageId)
+                    .filter(messageId -> !poisoned.contains(messageId))
+                    .toList());
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.eric.thumb.manager.batch;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+
+/**
+ * 点赞事件批量折叠
+ *
+ * 把一批事件折叠为每个 (userId, blogId) 的净动作和每个 blogId 的点赞增量：
+ * 1. 同一 (userId, blogId) 的事件按到达顺序处理，第一条反映批次开始前的状态，最后一条即最终状态
+ * 2. 前后状态相同则净效果为 0；由未点赞变为已点赞需要插入，反之需要删除
+ *
+ * userId、blogId 都是 64 位雪花 ID，无法无损压缩进一个 long，
+ * 因此使用两个并行的 long 数组做开放寻址，槽位状态用一个 byte 记录，全程没有装箱
+ *
+ * 非线程安全，只在单个线程内使用
+ *
+ * @author Eric
+ */
+public class ThumbBatchFold {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private static final byte USED = 1;
+
+    /**
+     * 第一条事件为取消点赞，即批次开始前已点赞
+     */
+    private static final byte THUMBED_BEFORE = 1 << 1;
+
+    /**
+     * 最后一条事件为点赞，即批次结束后已点赞
+     */
+    private static final byte THUMBED_AFTER = 1 << 2;
+
+    private long[] userIds;
+
+    private long[] blogIds;
+
+    private byte[] states;
+
+    private int size;
+
+    private int mask;
+
+    private int eventCount;
+
+    public ThumbBatchFold(int expectedPairs) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedPairs / LOAD_FACTOR)) - 1) << 1;
+        userIds = new long[capacity];
+        blogIds = new long[capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    public void add(ThumbEvent event) {
+        add(event.getUserId(), event.getBlogId(), event.getType() == ThumbEvent.EventType.INCR);
+    }
+
+    /**
+     * 按到达顺序添加一条事件
+     *
+     * @param incr true 点赞，false 取消点赞
+     */
+    public void add(long userId, long blogId, boolean incr) {
+        eventCount++;
+        int index = indexOf(userId, blogId);
+        byte state = states[index];
+        boolean newPair = state == 0;
+        if (newPair) {
+            userIds[index] = userId;
+            blogIds[index] = blogId;
+            state = incr ? USED : USED | THUMBED_BEFORE;
+        }
+        states[index] = (byte) (incr ? state | THUMBED_AFTER : state & ~THUMBED_AFTER);
+        if (newPair && ++size > userIds.length * LOAD_FACTOR) {
+            resize();
+        }
+    }
+
+    /**
+     * 输入的事件总数
+     */
+    public int eventCount() {
+        return eventCount;
+    }
+
+    /**
+     * 不同 (userId, blogId) 的数量
+     */
+    public int pairCount() {
+        return size;
+    }
+
+    /**
+     * 遍历需要插入点赞记录的 (userId, blogId)
+     */
+    public void forEachInsert(PairConsumer consumer) {
+        forEachState(USED | THUMBED_AFTER, consumer);
+    }
+
+    /**
+     * 遍历需要删除点赞记录的 (userId, blogId)
+     */
+    public void forEachDelete(PairConsumer consumer) {
+        forEachState(USED | THUMBED_BEFORE, consumer);
+    }
+
+    /**
+     * 计算每个 blogId 的点赞增量（已剔除净效果为 0 的 pair）
+     */
+    public LongLongHashMap blogDeltas() {
+        LongLongHashMap deltas = new LongLongHashMap(Math.max(16, size / 4));
+        forEachInsert((userId, blogId) -> deltas.addTo(blogId, 1));
+        forEachDelete((userId, blogId) -> deltas.addTo(blogId, -1));
+        return deltas;
+    }
+
+    private void forEachState(int expected, PairConsumer consumer) {
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == expected) {
+                consumer.accept(userIds[i], blogIds[i]);
+            }
+        }
+    }
+
+    private int indexOf(long userId, long blogId) {
+        int index = hash(userId, blogId) & mask;
+        while (states[index] != 0 && (userIds[index] != userId || blogIds[index] != blogId)) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void resize() {
+        long[] oldUserIds = userIds;
+        long[] oldBlogIds = blogIds;
+        byte[] oldStates = states;
+        int capacity = oldStates.length << 1;
+        userIds = new long[capacity];
+        blogIds = new long[capacity];
+        states = new byte[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldStates.length; i++) {
+            if (oldStates[i] != 0) {
+                int index = indexOf(oldUserIds[i], oldBlogIds[i]);
+                userIds[index] = oldUserIds[i];
+                blogIds[index] = oldBlogIds[i];
+                states[index] = oldStates[i];
+            }
+        }
+    }
+
+    private static int hash(long userId, long blogId) {
+        return LongLongHashMap.mix(userId * 31 + blogId);
+    }
+
+    @FunctionalInterface
+    public interface PairConsumer {
+        void accept(long userId, long blogId);
+    }
+}
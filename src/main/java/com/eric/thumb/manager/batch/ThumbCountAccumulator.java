@@ -0,0 +1,206 @@
+package com.eric.thumb.manager.batch;
+
+import com.eric.thumb.manager.BatchProcessManager;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 博客点赞数写后累加器（单写者）
+ *
+ * 各通道的消费批次在写 thumb 表的同一事务中把点赞数增量记为待计入记录（blog_thumb_delta_pending），
+ * 只把记录 id 交给这里，由唯一的刷出线程按大小/时间触发，在一个事务中把这些记录合并进 blog 表并删除：
+ * 1. 热点博客的 blog 行不再被多个消费批次并发更新，行锁竞争从消费线程上移走
+ * 2. 每个批次登记确认回调，点赞数提交成功后才确认消息
+ * 3. 消费水位（{@link ThumbApplyWatermark}）与 thumb 表、待计入记录在同一个事务中推进，这里不处理水位：
+ *    重投的消息要么被水位跳过，要么它的增量记录还没写入，ack 丢失或进程崩溃都不会重复或遗漏计数
+ * 4. 提交失败时记录 id 和回调放回累加器，下一轮原地重试
+ * 5. 增量在 thumb 表提交时已经持久化：进程崩溃后留下的待计入记录，
+ *    由存活节点的刷出线程定期接管（创建超过 orphanAgeSeconds 秒仍未计入的），点赞数不依赖进程内存。
+ *    合并时先锁定记录再删除，同一条记录只会被计入一次
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbCountAccumulator {
+
+    private final BatchProcessManager batchProcessManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Timer flushTimer;
+
+    /**
+     * 刷出间隔（毫秒）
+     */
+    @Value("${thumb.count.flush-interval-ms:200}")
+    private long flushIntervalMs;
+
+    /**
+     * 累积的待计入记录数达到该值时立即刷出
+     */
+    @Value("${thumb.count.max-pending-deltas:1000}")
+    private int maxPendingDeltas;
+
+    /**
+     * 待计入记录创建超过该时长（秒）仍未计入时，视为写入节点已崩溃，由任意节点接管
+     */
+    @Value("${thumb.count.orphan-age-seconds:60}")
+    private long orphanAgeSeconds;
+
+    /**
+     * 接管遗留记录的间隔（毫秒）
+     */
+    @Value("${thumb.count.orphan-sweep-interval-ms:30000}")
+    private long orphanSweepIntervalMs;
+
+    /**
+     * 每个事务接管的遗留记录数
+     */
+    @Value("${thumb.count.orphan-sweep-batch-size:1000}")
+    private int orphanSweepBatchSize;
+
+    private List<Long> deltaIds = new ArrayList<>();
+
+    private List<Runnable> waiters = new ArrayList<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private ScheduledExecutorService writer;
+
+    public ThumbCountAccumulator(BatchProcessManager batchProcessManager,
+                                 TransactionTemplate transactionTemplate,
+                                 MeterRegistry registry) {
+        this.batchProcessManager = batchProcessManager;
+        this.transactionTemplate = transactionTemplate;
+        this.flushTimer = Timer.builder("thumb.count.flush")
+                .description("Duration of flushing accumulated blog thumb count deltas")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        Gauge.builder("thumb.count.pending.deltas", this, ThumbCountAccumulator::pendingDeltas)
+                .description("Pending blog thumb count delta rows waiting to be flushed by this node")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        writer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("thumb-count-writer").daemon().factory());
+        writer.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        // 启动时立即接管上次崩溃留下的记录
+        writer.scheduleWithFixedDelay(this::sweepOrphansQuietly, 0, orphanSweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        writer.shutdown();
+        if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+            writer.shutdownNow();
+            return;
+        }
+        // writer 线程已退出，在当前线程刷出剩余增量
+        flushQuietly();
+    }
+
+    /**
+     * 登记一批已经持久化的点赞数增量
+     *
+     * @param pendingIds 与 thumb 表同一事务写入的待计入记录 id（{@link BatchProcessManager#recordPendingDeltas}）
+     * @param onFlushed  增量提交成功后回调（确认消息）
+     */
+    public void add(List<Long> pendingIds, Runnable onFlushed) {
+        boolean full;
+        synchronized (this) {
+            deltaIds.addAll(pendingIds);
+            waiters.add(onFlushed);
+            full = deltaIds.size() >= maxPendingDeltas;
+        }
+        if (full && flushScheduled.compareAndSet(false, true)) {
+            writer.execute(this::flushQuietly);
+        }
+    }
+
+    private synchronized int pendingDeltas() {
+        return deltaIds.size();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("博客点赞数刷出失败", e);
+        }
+    }
+
+    /**
+     * 只在 writer 线程中执行（停机时 writer 退出后在停机线程中执行一次）
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        List<Long> batch;
+        List<Runnable> batchWaiters;
+        synchronized (this) {
+            if (waiters.isEmpty()) {
+                return;
+            }
+            batch = deltaIds;
+            batchWaiters = waiters;
+            deltaIds = new ArrayList<>(Math.max(64, batch.size()));
+            waiters = new ArrayList<>();
+        }
+
+        long start = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> batchProcessManager.applyPendingDeltas(batch));
+        } catch (Exception e) {
+            log.error("博客点赞数提交失败，{} 个批次下一轮重试", batchWaiters.size(), e);
+            synchronized (this) {
+                // 放回累加器，期间新到的记录一起重试
+                batch.addAll(deltaIds);
+                deltaIds = batch;
+                batchWaiters.addAll(waiters);
+                waiters = batchWaiters;
+            }
+            return;
+        }
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchWaiters.forEach(this::runQuietly);
+    }
+
+    private void sweepOrphansQuietly() {
+        try {
+            int applied;
+            do {
+                Integer rows = transactionTemplate.execute(
+                        status -> batchProcessManager.applyStalePendingDeltas(orphanAgeSeconds, orphanSweepBatchSize));
+                applied = rows == null ? 0 : rows;
+                if (applied > 0) {
+                    log.warn("接管遗留的待计入点赞增量 {} 条", applied);
+                }
+            } while (applied >= orphanSweepBatchSize);
+        } catch (Exception e) {
+            log.error("接管遗留的待计入点赞增量失败", e);
+        }
+    }
+
+    private void runQuietly(Runnable callback) {
+        try {
+            callback.run();
+        } catch (Exception e) {
+            log.warn("点赞数刷出回调执行失败", e);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.eric.thumb.manager.batch;
+
+import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.util.RedisKeyUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 点赞事件时间守卫
+ *
+ * 同一 (userId, blogId) 的事件并不总是按发生顺序到达消费端：
+ * 博客热度按节点统计，切到热点 topic 时批量 topic 里可能还有该博客的积压，各节点也可能一个走热点、一个走批量；
+ * 死信队列中的事件更是可能在很久之后才重放。这里在 Redis 中记录每个 (userId, blogId) 已应用的最新事件时间，
+ * 落库前丢弃早于它的事件，thumb 表最终与最新的事件一致
+ *
+ * 1. 一批事件按 (userId, blogId) 取最大事件时间，pipeline 中每个 (userId, blogId) 一次脚本调用，
+ *    见 {@link RedisLuaScriptConstant#THUMB_PAIR_CLOCK_ADVANCE_SCRIPT}
+ * 2. 在落库之前推进：落库失败重试、消息重投时，同一事件的时间等于记录值，不会被当作过期事件
+ * 3. 被丢弃的事件不写 thumb 表，点赞数按实际写入的行计算，也不会计入
+ * 4. 没有事件时间的事件（旧格式）不参与判断；Redis 不可用时不过滤，退化为按到达顺序应用
+ * 5. 记录在 ttlSeconds 后过期，需要大于两条通道之间可能的最大延迟差
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbPairClock {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final Counter staleCounter;
+
+    /**
+     * 事件时间记录的过期时间（秒）
+     */
+    @Value("${thumb.consumer.pair-clock-ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    public ThumbPairClock(StringRedisTemplate stringRedisTemplate, MeterRegistry registry) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.staleCounter = Counter.builder("thumb.consumer.stale.count")
+                .description("Thumb events skipped because a newer event of the same pair was already applied")
+                .register(registry);
+    }
+
+    /**
+     * 丢弃早于已应用事件的点赞事件，并把保留下来的事件时间记为各 (userId, blogId) 的最新时间
+     * 同一 (userId, blogId) 的事件需要按到达顺序传入
+     *
+     * @param eventOf 取出元素对应的点赞事件
+     * @return 需要应用的元素，保持原有顺序
+     */
+    public <T> List<T> filter(List<T> items, Function<T, ThumbEvent> eventOf) {
+        Map<PairKey, Long> latest = new LinkedHashMap<>();
+        for (T item : items) {
+            ThumbEvent event = eventOf.apply(item);
+            Long eventTime = eventTimeOf(event);
+            if (eventTime != null) {
+                latest.merge(new PairKey(event.getUserId(), event.getBlogId()), eventTime, Math::max);
+            }
+        }
+        if (latest.isEmpty()) {
+            return items;
+        }
+
+        Map<PairKey, Long> applied;
+        try {
+            applied = advance(latest);
+        } catch (Exception e) {
+            log.warn("点赞事件时间守卫不可用，按到达顺序应用 {} 个 (userId, blogId)", latest.size(), e);
+            return items;
+        }
+        List<T> accepted = new ArrayList<>(items.size());
+        for (T item : items) {
+            ThumbEvent event = eventOf.apply(item);
+            Long eventTime = eventTimeOf(event);
+            if (eventTime != null && eventTime < applied.getOrDefault(new PairKey(event.getUserId(), event.getBlogId()), 0L)) {
+                staleCounter.increment();
+                continue;
+            }
+            accepted.add(item);
+        }
+        if (accepted.size() < items.size()) {
+            log.info("跳过 {} 条早于已应用事件的点赞事件", items.size() - accepted.size());
+        }
+        return accepted;
+    }
+
+    /**
+     * @return (userId, blogId) -> 推进前已应用的事件时间
+     */
+    private Map<PairKey, Long> advance(Map<PairKey, Long> latest) {
+        byte[] script = RedisLuaScriptConstant.THUMB_PAIR_CLOCK_ADVANCE_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] sha = RedisLuaScriptConstant.THUMB_PAIR_CLOCK_ADVANCE_SCRIPT.getSha1().getBytes(StandardCharsets.UTF_8);
+        byte[] ttlMs = String.valueOf(TimeUnit.SECONDS.toMillis(ttlSeconds)).getBytes(StandardCharsets.UTF_8);
+        List<PairKey> pairs = new ArrayList<>(latest.keySet());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // 同一个 pipeline 中先加载脚本，后面的 EVALSHA 不会遇到 NOSCRIPT
+            connection.scriptingCommands().scriptLoad(script);
+            for (PairKey pair : pairs) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 1,
+                        RedisKeyUtil.getThumbPairClockKey(pair.userId(), pair.blogId()).getBytes(StandardCharsets.UTF_8),
+                        latest.get(pair).toString().getBytes(StandardCharsets.UTF_8),
+                        ttlMs);
+            }
+            return null;
+        });
+        // 第一个结果是 SCRIPT LOAD 返回的 sha
+        Map<PairKey, Long> applied = new HashMap<>(pairs.size());
+        for (int i = 0; i < pairs.size(); i++) {
+            if (results.get(i + 1) instanceof Long value) {
+                applied.put(pairs.get(i), value);
+            }
+        }
+        return applied;
+    }
+
+    private static Long eventTimeOf(ThumbEvent event) {
+        if (event.getEventTime() == null) {
+            return null;
+        }
+        return event.getEventTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private record PairKey(long userId, long blogId) {
+    }
+}
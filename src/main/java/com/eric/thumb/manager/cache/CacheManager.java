@@ -34,6 +34,9 @@ public class CacheManager {
     @Resource
     private ThumbMapper thumbMapper;
 
+    @Resource
+    private ThumbDigestManager thumbDigestManager;
+
     @Bean
     public TopK getHotKeyDetector() {
         hotKeyDetector = new HeavyKeeper(
@@ -86,8 +89,8 @@ public class CacheManager {
                 // 记录访问并决定是否缓存
                 AddResult addResult = hotKeyDetector.add(key, 1);
                 
-                // 将数据库结果写入Redis
-                redisTemplate.opsForHash().put(hashKey, key, dbValue);
+                // 将数据库结果写入Redis，同时计入用户点赞摘要
+                thumbDigestManager.markThumbed(userIdOf(hashKey), key, dbValue);
                 
                 // 如果是热Key，也写入本地缓存
                 if (addResult.isHotKey()) {
@@ -98,7 +101,7 @@ public class CacheManager {
             }
             
             // 数据库也没有，返回空并缓存空值防止缓存穿透
-            redisTemplate.opsForHash().put(hashKey, key, ThumbConstant.UN_THUMB_CONSTANT);
+            thumbDigestManager.markCacheMiss(userIdOf(hashKey), key);
             return null;
         }
 
@@ -129,6 +132,10 @@ public class CacheManager {
         localCache.put(compositeKey, value);
     }
 
+    private Long userIdOf(String hashKey) {
+        return Long.valueOf(hashKey.replace(ThumbConstant.USER_THUMB_KEY_PREFIX, ""));
+    }
+
     /**
      * 从数据库查询点赞记录
      * @param hashKey 格式：thumb:userId
@@ -0,0 +1,237 @@
+package com.eric.thumb.manager.cache;
+
+import com.eric.thumb.manager.job.JobCoordinator;
+import com.eric.thumb.mapper.ThumbMapper;
+import com.eric.thumb.model.entity.Thumb;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Redis 用户点赞状态批量重建
+ *
+ * Redis 清空或迁移后，{@link CacheManager#get} 逐个字段回源会长时间压住数据库，
+ * 这里在放开流量前按线速重建 thumb:{userId}：
+ * 1. 按主键顺序用 MyBatis Cursor 流式读取 thumb 表，每段一个只读事务，避免长事务
+ * 2. 每批记录按用户分组，一次 pipeline 写入，每个用户一次脚本调用，同时维护用户点赞摘要；
+ *    已有的字段不覆盖，重建期间放进来的点赞、取消点赞以线上写入为准
+ * 3. 每批写入后把最后一条记录的主键作为检查点保存在 Redis 中，中断后从检查点继续；
+ *    重复写入同一批是幂等的
+ * 4. 按每秒行数限速；多副本下同一时刻只有一个节点重建
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbCacheRebuildManager {
+
+    private static final String JOB_NAME = "thumb-cache-rebuild";
+
+    /**
+     * 重建进度：lastId、rows、loaded、startedAt、updatedAt、finishedAt
+     */
+    private static final String PROGRESS_KEY = "thumb:cache:rebuild:progress";
+
+    private static final Duration LEASE_TTL = Duration.ofMinutes(5);
+
+    private final ThumbMapper thumbMapper;
+
+    private final ThumbDigestManager thumbDigestManager;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final JobCoordinator jobCoordinator;
+
+    private final TransactionTemplate readOnlyTransactionTemplate;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private volatile boolean stopping;
+
+    /**
+     * 每次 pipeline 写入的记录数
+     */
+    @Value("${thumb.cache-rebuild.batch-size:5000}")
+    private int batchSize;
+
+    /**
+     * 每个只读事务流式读取的记录数
+     */
+    @Value("${thumb.cache-rebuild.segment-rows:500000}")
+    private int segmentRows;
+
+    public ThumbCacheRebuildManager(ThumbMapper thumbMapper,
+                                    ThumbDigestManager thumbDigestManager,
+                                    StringRedisTemplate stringRedisTemplate,
+                                    JobCoordinator jobCoordinator,
+                                    PlatformTransactionManager transactionManager) {
+        this.thumbMapper = thumbMapper;
+        this.thumbDigestManager = thumbDigestManager;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.jobCoordinator = jobCoordinator;
+        this.readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.readOnlyTransactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * 异步重建，同一时刻只允许一个重建任务
+     *
+     * @param rowsPerSecond 每秒最多写入的记录数
+     * @param restart       是否忽略检查点从头重建
+     * @return 是否成功启动
+     */
+    public boolean start(int rowsPerSecond, boolean restart) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        if (jobCoordinator.tryAcquire(JOB_NAME, LEASE_TTL).isEmpty()) {
+            running.set(false);
+            return false;
+        }
+        stopping = false;
+        if (restart) {
+            stringRedisTemplate.delete(PROGRESS_KEY);
+        }
+        Thread.startVirtualThread(() -> {
+            try {
+                rebuild(rowsPerSecond);
+            } catch (Exception e) {
+                log.error("Redis 点赞状态重建失败，可从检查点继续", e);
+            } finally {
+                jobCoordinator.release(JOB_NAME);
+                running.set(false);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 请求停止，当前批次写入并保存检查点后退出
+     */
+    public void stop() {
+        stopping = true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 当前进度（检查点）
+     */
+    public Map<Object, Object> progress() {
+        return stringRedisTemplate.opsForHash().entries(PROGRESS_KEY);
+    }
+
+    private void rebuild(int rowsPerSecond) {
+        Object checkpoint = stringRedisTemplate.opsForHash().get(PROGRESS_KEY, "lastId");
+        long afterId = checkpoint == null ? 0 : Long.parseLong(checkpoint.toString());
+        stringRedisTemplate.opsForHash().putIfAbsent(PROGRESS_KEY, "startedAt", String.valueOf(System.currentTimeMillis()));
+        stringRedisTemplate.opsForHash().delete(PROGRESS_KEY, "finishedAt");
+        log.info("开始重建 Redis 点赞状态，检查点 lastId={}", afterId);
+
+        while (!stopping) {
+            long segmentAfterId = afterId;
+            Segment segment = readOnlyTransactionTemplate.execute(status -> rebuildSegment(segmentAfterId, rowsPerSecond));
+            if (segment == null || segment.rows() == 0) {
+                break;
+            }
+            afterId = segment.lastId();
+            if (segment.rows() < segmentRows) {
+                break;
+            }
+        }
+        if (!stopping) {
+            stringRedisTemplate.opsForHash().put(PROGRESS_KEY, "finishedAt", String.valueOf(System.currentTimeMillis()));
+        }
+        log.info("Redis 点赞状态重建{}，进度 {}", stopping ? "已停止" : "完成", progress());
+    }
+
+    /**
+     * 流式读取一段记录，按批写入 Redis 并保存检查点
+     */
+    private Segment rebuildSegment(long afterId, int rowsPerSecond) {
+        long lastId = afterId;
+        int rows = 0;
+        try (Cursor<Thumb> cursor = thumbMapper.streamAfterId(afterId, segmentRows)) {
+            List<Thumb> batch = new ArrayList<>(batchSize);
+            long start = System.nanoTime();
+            for (Thumb thumb : cursor) {
+                batch.add(thumb);
+                rows++;
+                if (batch.size() >= batchSize) {
+                    lastId = flush(batch);
+                    throttle(start, batch.size(), rowsPerSecond);
+                    batch = new ArrayList<>(batchSize);
+                    start = System.nanoTime();
+                    if (stopping) {
+                        return new Segment(lastId, rows);
+                    }
+                }
+            }
+            if (!batch.isEmpty()) {
+                lastId = flush(batch);
+                throttle(start, batch.size(), rowsPerSecond);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("关闭点赞记录游标失败", e);
+        }
+        return new Segment(lastId, rows);
+    }
+
+    /**
+     * 一批记录按用户分组写入 Redis，然后保存检查点
+     *
+     * @return 这一批最后一条记录的主键
+     */
+    private long flush(List<Thumb> batch) {
+        Map<Long, List<Thumb>> thumbsByUser = new HashMap<>();
+        for (Thumb thumb : batch) {
+            thumbsByUser.computeIfAbsent(thumb.getUserId(), key -> new ArrayList<>()).add(thumb);
+        }
+        long loaded = thumbDigestManager.load(thumbsByUser);
+        long lastId = batch.get(batch.size() - 1).getId();
+
+        stringRedisTemplate.opsForHash().put(PROGRESS_KEY, "lastId", String.valueOf(lastId));
+        stringRedisTemplate.opsForHash().increment(PROGRESS_KEY, "rows", batch.size());
+        stringRedisTemplate.opsForHash().increment(PROGRESS_KEY, "loaded", loaded);
+        stringRedisTemplate.opsForHash().put(PROGRESS_KEY, "updatedAt", String.valueOf(System.currentTimeMillis()));
+        if (jobCoordinator.tryAcquire(JOB_NAME, LEASE_TTL).isEmpty()) {
+            log.warn("Redis 点赞状态重建租约已被其他节点接管，停止重建");
+            stopping = true;
+        }
+        return lastId;
+    }
+
+    /**
+     * 按每秒行数限速
+     */
+    private void throttle(long startNanos, int rows, int rowsPerSecond) {
+        long minNanos = TimeUnit.SECONDS.toNanos(rows) / rowsPerSecond;
+        long sleepNanos = minNanos - (System.nanoTime() - startNanos);
+        if (sleepNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopping = true;
+            }
+        }
+    }
+
+    private record Segment(long lastId, int rows) {
+    }
+}
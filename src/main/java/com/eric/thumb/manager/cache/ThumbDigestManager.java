@@ -0,0 +1,212 @@
+package com.eric.thumb.manager.cache;
+
+import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.constant.ThumbConstant;
+import com.eric.thumb.model.entity.Thumb;
+import com.eric.thumb.model.entity.ThumbUserDigest;
+import com.eric.thumb.util.RedisKeyUtil;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis 用户点赞状态与点赞摘要
+ *
+ * 用户点赞 hash（thumb:{userId}）的写入都经过这里，和摘要（thumb:digest:{userId}）在同一个 Lua 脚本中更新，
+ * 摘要始终反映 hash 中已点赞的字段（值为 {@link com.eric.thumb.constant.ThumbConstant#UN_THUMB_CONSTANT} 的未点赞缓存不计入）
+ * 摘要的计算方式见 {@link com.eric.thumb.util.ThumbDigestUtil}
+ *
+ * @author Eric
+ */
+@Component
+public class ThumbDigestManager {
+
+    private static final String COUNT_FIELD = "count";
+
+    private static final String DIGEST1_FIELD = "d1";
+
+    private static final String DIGEST2_FIELD = "d2";
+
+    private static final String UN_THUMB_VALUE = String.valueOf(ThumbConstant.UN_THUMB_CONSTANT);
+
+    private final RedisSerializer<Object> hashValueSerializer;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    @SuppressWarnings("unchecked")
+    public ThumbDigestManager(RedisTemplate<String, Object> redisTemplate, StringRedisTemplate stringRedisTemplate) {
+        this.hashValueSerializer = (RedisSerializer<Object>) redisTemplate.getHashValueSerializer();
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 写入已点赞状态
+     *
+     * @param value 点赞状态值，按 redisTemplate 的 hash 值序列化方式写入，读取方式不变
+     * @return 原本是否未点赞
+     */
+    public boolean markThumbed(Long userId, String blogId, Object value) {
+        byte[] serialized = hashValueSerializer.serialize(value);
+        Long result = stringRedisTemplate.execute(RedisLuaScriptConstant.THUMB_DIGEST_MARK_SCRIPT,
+                Arrays.asList(RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbDigestKey(userId)),
+                blogId, new String(serialized, StandardCharsets.UTF_8));
+        return result != null && result == 1;
+    }
+
+    /**
+     * 写入未点赞状态
+     *
+     * @return 原本是否已点赞
+     */
+    public boolean markUnthumbed(Long userId, String blogId) {
+        Long result = stringRedisTemplate.execute(RedisLuaScriptConstant.THUMB_DIGEST_UNMARK_SCRIPT,
+                Arrays.asList(RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbDigestKey(userId)),
+                blogId);
+        return result != null && result == 1;
+    }
+
+    /**
+     * 回源查询确认未点赞，写入未点赞缓存防止缓存穿透
+     * 只在字段不存在时写入（HSETNX），回源期间并发点赞写入的状态不会被覆盖；未点赞缓存不计入摘要，摘要不变
+     */
+    public void markCacheMiss(Long userId, String blogId) {
+        stringRedisTemplate.opsForHash().putIfAbsent(RedisKeyUtil.getUserThumbKey(userId), blogId, UN_THUMB_VALUE);
+    }
+
+    /**
+     * 一次 pipeline 用数据库中的点赞记录补齐用户点赞状态，规则见 {@link RedisLuaScriptConstant#THUMB_DIGEST_FILL_SCRIPT}
+     *
+     * @param thumbs 需要 userId、blogId、createTime，调用方负责控制单次数量
+     * @return 补齐的记录数
+     */
+    public int fillMissing(List<Thumb> thumbs) {
+        byte[] script = RedisLuaScriptConstant.THUMB_DIGEST_FILL_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] sha = RedisLuaScriptConstant.THUMB_DIGEST_FILL_SCRIPT.getSha1().getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // 同一个 pipeline 中先加载脚本，后面的 EVALSHA 不会遇到 NOSCRIPT
+            connection.scriptingCommands().scriptLoad(script);
+            for (Thumb thumb : thumbs) {
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2,
+                        RedisKeyUtil.getUserThumbKey(thumb.getUserId()).getBytes(StandardCharsets.UTF_8),
+                        RedisKeyUtil.getUserThumbDigestKey(thumb.getUserId()).getBytes(StandardCharsets.UTF_8),
+                        thumb.getBlogId().toString().getBytes(StandardCharsets.UTF_8),
+                        hashValueSerializer.serialize(thumb.getCreateTime()));
+            }
+            return null;
+        });
+        int filled = 0;
+        for (Object result : results) {
+            if (result instanceof Long value && value == 1) {
+                filled++;
+            }
+        }
+        return filled;
+    }
+
+    /**
+     * 一次 pipeline 批量加载多个用户的点赞状态，每个用户一次脚本调用，
+     * 规则见 {@link RedisLuaScriptConstant#THUMB_DIGEST_LOAD_SCRIPT}
+     *
+     * @param thumbsByUser userId -> 点赞记录（需要 blogId、createTime），调用方负责控制单次数量
+     * @return 新写入的字段数
+     */
+    public long load(Map<Long, List<Thumb>> thumbsByUser) {
+        byte[] script = RedisLuaScriptConstant.THUMB_DIGEST_LOAD_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        byte[] sha = RedisLuaScriptConstant.THUMB_DIGEST_LOAD_SCRIPT.getSha1().getBytes(StandardCharsets.UTF_8);
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.scriptingCommands().scriptLoad(script);
+            thumbsByUser.forEach((userId, thumbs) -> {
+                byte[][] keysAndArgs = new byte[2 + thumbs.size() * 2][];
+                keysAndArgs[0] = RedisKeyUtil.getUserThumbKey(userId).getBytes(StandardCharsets.UTF_8);
+                keysAndArgs[1] = RedisKeyUtil.getUserThumbDigestKey(userId).getBytes(StandardCharsets.UTF_8);
+                int index = 2;
+                for (Thumb thumb : thumbs) {
+                    keysAndArgs[index++] = thumb.getBlogId().toString().getBytes(StandardCharsets.UTF_8);
+                    keysAndArgs[index++] = hashValueSerializer.serialize(thumb.getCreateTime());
+                }
+                connection.scriptingCommands().evalSha(sha, ReturnType.INTEGER, 2, keysAndArgs);
+            });
+            return null;
+        });
+        long added = 0;
+        for (Object result : results) {
+            if (result instanceof Long value) {
+                added += value;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * 一次 pipeline 读取一批用户的摘要，没有摘要的用户按零值返回
+     */
+    public Map<Long, ThumbUserDigest> getDigests(List<Long> userIds) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Long userId : userIds) {
+                connection.hashCommands().hMGet(RedisKeyUtil.getUserThumbDigestKey(userId).getBytes(StandardCharsets.UTF_8),
+                        COUNT_FIELD.getBytes(StandardCharsets.UTF_8),
+                        DIGEST1_FIELD.getBytes(StandardCharsets.UTF_8),
+                        DIGEST2_FIELD.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        Map<Long, ThumbUserDigest> digests = new HashMap<>(userIds.size());
+        for (int i = 0; i < userIds.size(); i++) {
+            @SuppressWarnings("unchecked")
+            List<String> values = (List<String>) results.get(i);
+            ThumbUserDigest digest = new ThumbUserDigest();
+            digest.setUserId(userIds.get(i));
+            digest.setThumbCount(parseLong(values, 0));
+            digest.setDigest1(parseLong(values, 1));
+            digest.setDigest2(parseLong(values, 2));
+            digests.put(userIds.get(i), digest);
+        }
+        return digests;
+    }
+
+    /**
+     * 一次 pipeline 读取一批 (userId, blogId) 在 Redis 中的点赞状态
+     *
+     * @param thumbs 只需要 userId、blogId
+     * @return 与 thumbs 一一对应：true 已点赞，false 未点赞（未点赞缓存），null 没有这个字段
+     */
+    public List<Boolean> getStates(List<Thumb> thumbs) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (Thumb thumb : thumbs) {
+                connection.hashCommands().hGet(RedisKeyUtil.getUserThumbKey(thumb.getUserId()).getBytes(StandardCharsets.UTF_8),
+                        thumb.getBlogId().toString().getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<Boolean> states = new ArrayList<>(thumbs.size());
+        for (Object result : results) {
+            states.add(result == null ? null : !UN_THUMB_VALUE.equals(result));
+        }
+        return states;
+    }
+
+    /**
+     * 按用户点赞 hash 重新计算摘要
+     */
+    public void rebuild(Long userId) {
+        stringRedisTemplate.execute(RedisLuaScriptConstant.THUMB_DIGEST_REBUILD_SCRIPT,
+                Arrays.asList(RedisKeyUtil.getUserThumbKey(userId), RedisKeyUtil.getUserThumbDigestKey(userId)));
+    }
+
+    private static long parseLong(List<String> values, int index) {
+        if (values == null || values.size() <= index || values.get(index) == null) {
+            return 0L;
+        }
+        return Long.parseLong(values.get(index));
+    }
+}
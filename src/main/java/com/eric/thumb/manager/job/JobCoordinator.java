@@ -0,0 +1,170 @@
+package com.eric.thumb.manager.job;
+
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.util.IdUtil;
+import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.mapper.ThumbJobFenceMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * 定时任务协调
+ *
+ * 多个副本上的 @Scheduled 任务同时触发，这里提供两种协调方式：
+ * 1. 选主：Redis 租约 + 防护令牌（fencing token）。每次获得租约令牌递增，
+ *    Redis 写入由脚本对比令牌计数键校验；数据库写入先用 {@link #fence} 把令牌推进到 thumb_job_fence 表，
+ *    再在写入事务内调用 {@link #checkFence} 校验，GC 停顿等原因导致租约过期的旧主写入会被拒绝
+ * 2. 分片：存活节点登记在 ZSET 中（分数为心跳时间），按排序后的节点列表把哈希分片分给各节点，
+ *    增加副本即可加快任务。节点变化期间的一轮可能重复或遗漏少量分片，下一轮补齐
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class JobCoordinator {
+
+    private static final String NODES_KEY = "thumb:job:nodes";
+
+    private static final String LEASE_KEY_PREFIX = "thumb:job:lease:";
+
+    private static final String FENCE_KEY_PREFIX = "thumb:job:fence:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ThumbJobFenceMapper thumbJobFenceMapper;
+
+    private final String nodeId;
+
+    /**
+     * 心跳超过该时长（毫秒）的节点视为下线
+     */
+    @Value("${thumb.job.node-ttl-ms:15000}")
+    private long nodeTtlMs;
+
+    public JobCoordinator(StringRedisTemplate stringRedisTemplate, ThumbJobFenceMapper thumbJobFenceMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.thumbJobFenceMapper = thumbJobFenceMapper;
+        this.nodeId = NetUtil.getLocalHostName() + ":" + IdUtil.fastSimpleUUID().substring(0, 8);
+    }
+
+    @PostConstruct
+    public void register() {
+        heartbeat();
+    }
+
+    @PreDestroy
+    public void unregister() {
+        stringRedisTemplate.opsForZSet().remove(NODES_KEY, nodeId);
+    }
+
+    @Scheduled(fixedDelayString = "${thumb.job.heartbeat-ms:5000}")
+    public void heartbeat() {
+        long now = System.currentTimeMillis();
+        stringRedisTemplate.opsForZSet().add(NODES_KEY, nodeId, now);
+        stringRedisTemplate.opsForZSet().removeRangeByScore(NODES_KEY, 0, now - nodeTtlMs);
+    }
+
+    /**
+     * 获取或续约任务租约
+     *
+     * @param job 任务名
+     * @param ttl 租约时长，应大于任务单轮耗时
+     * @return 持有租约时返回租约（含防护令牌）
+     */
+    public Optional<Lease> tryAcquire(String job, Duration ttl) {
+        Long token = stringRedisTemplate.execute(RedisLuaScriptConstant.JOB_LEASE_ACQUIRE_SCRIPT,
+                Arrays.asList(LEASE_KEY_PREFIX + job, FENCE_KEY_PREFIX + job),
+                nodeId, String.valueOf(ttl.toMillis()));
+        if (token == null || token < 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new Lease(job, token));
+    }
+
+    /**
+     * 把租约的防护令牌推进到数据库，获得租约后、写入数据库之前调用，不要在写入事务内调用
+     * 推进需要等待旧主持有共享锁的事务结束，之后旧主的事务校验都会失败
+     */
+    public void fence(Lease lease) {
+        thumbJobFenceMapper.advance(lease.job(), lease.token());
+    }
+
+    /**
+     * 在数据库写入事务内校验防护令牌，令牌已被更新的租约推进时抛出异常回滚事务
+     * 校验时对令牌行加共享锁，直到事务提交，新主推进令牌会等待这个事务结束
+     */
+    public void checkFence(Lease lease) {
+        Long token = thumbJobFenceMapper.selectTokenForShare(lease.job());
+        if (token == null || token != lease.token()) {
+            throw new RuntimeException("任务租约已被其他节点接管 job=" + lease.job()
+                    + ", token=" + lease.token() + ", current=" + token);
+        }
+    }
+
+    /**
+     * 释放当前节点持有的租约，其他节点下一轮即可接管
+     */
+    public void release(String job) {
+        stringRedisTemplate.execute(RedisLuaScriptConstant.JOB_LEASE_RELEASE_SCRIPT,
+                Collections.singletonList(LEASE_KEY_PREFIX + job), nodeId);
+    }
+
+    /**
+     * 当前节点标识（主机名 + 随机后缀），每次启动不同
+     */
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * 防护令牌计数键，供下游写入脚本校验令牌
+     */
+    public static String fenceKey(String job) {
+        return FENCE_KEY_PREFIX + job;
+    }
+
+    /**
+     * 当前节点在存活节点中的分片位置
+     */
+    public Assignment assignment() {
+        long now = System.currentTimeMillis();
+        Set<String> live = stringRedisTemplate.opsForZSet().rangeByScore(NODES_KEY, now - nodeTtlMs, Double.MAX_VALUE);
+        List<String> nodes = live == null ? new ArrayList<>() : new ArrayList<>(live);
+        if (!nodes.contains(nodeId)) {
+            // 自己的心跳还没写入或已过期，按自己在线处理，宁可重复也不遗漏
+            nodes.add(nodeId);
+        }
+        Collections.sort(nodes);
+        return new Assignment(nodes.indexOf(nodeId), nodes.size());
+    }
+
+    /**
+     * @param token 防护令牌，每次租约易主时递增
+     */
+    public record Lease(String job, long token) {
+    }
+
+    /**
+     * @param index 当前节点的序号
+     * @param total 存活节点数
+     */
+    public record Assignment(int index, int total) {
+
+        public boolean owns(long hash) {
+            return Math.floorMod(hash, total) == index;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.config.ThumbBatchConsumerConfig;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.admin.PulsarAdmin;
+import org.apache.pulsar.common.policies.data.SubscriptionStats;
+import org.apache.pulsar.common.policies.data.TopicStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.pulsar.core.PulsarAdministration;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 点赞消费积压监控
+ *
+ * 定时从 Pulsar 的订阅统计读取各通道未确认的消息数，暴露为 thumb.consumer.backlog（tag lane），
+ * 用于评估消费者数量和配置告警。分区 topic 汇总所有分区的积压
+ *
+ * @author Eric
+ */
+@ConditionalOnProperty(prefix = "thumb.event-bus", name = "type", havingValue = "pulsar", matchIfMissing = true)
+@Component
+@Slf4j
+public class ThumbBacklogMonitor {
+
+    private final PulsarAdministration pulsarAdministration;
+
+    private final List<Lane> lanes;
+
+    private PulsarAdmin admin;
+
+    public ThumbBacklogMonitor(PulsarAdministration pulsarAdministration,
+                               MeterRegistry registry,
+                               @Value("${thumb.producer.topic:thumb-topic}") String topic,
+                               @Value("${thumb.producer.hot-topic:thumb-hot-topic}") String hotTopic) {
+        this.pulsarAdministration = pulsarAdministration;
+        this.lanes = List.of(
+                new Lane(ThumbBatchConsumerConfig.BULK_LANE, topic, "thumb-subscription"),
+                new Lane(ThumbBatchConsumerConfig.HOT_LANE, hotTopic, "thumb-hot-subscription"),
+                new Lane("dlq", "thumb-dlq-topic", "thumb-dlq-subscription"));
+        for (Lane lane : lanes) {
+            Gauge.builder("thumb.consumer.backlog", lane.backlog(), AtomicLong::get)
+                    .description("Unacknowledged thumb messages in the subscription backlog")
+                    .tag("lane", lane.name())
+                    .register(registry);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (admin != null) {
+            admin.close();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${thumb.consumer.backlog-interval-ms:15000}")
+    public void run() {
+        for (Lane lane : lanes) {
+            try {
+                lane.backlog().set(backlogOf(lane));
+            } catch (Exception e) {
+                log.warn("读取点赞消费积压失败 topic={}, subscription={}", lane.topic(), lane.subscription(), e);
+            }
+        }
+    }
+
+    private long backlogOf(Lane lane) throws Exception {
+        PulsarAdmin pulsarAdmin = admin();
+        TopicStats stats = pulsarAdmin.topics().getPartitionedTopicMetadata(lane.topic()).partitions > 0
+                ? pulsarAdmin.topics().getPartitionedStats(lane.topic(), false)
+                : pulsarAdmin.topics().getStats(lane.topic());
+        SubscriptionStats subscription = stats.getSubscriptions().get(lane.subscription());
+        return subscription == null ? 0 : subscription.getMsgBacklog();
+    }
+
+    private synchronized PulsarAdmin admin() throws Exception {
+        if (admin == null) {
+            admin = pulsarAdministration.createAdminClient();
+        }
+        return admin;
+    }
+
+    private record Lane(String name, String topic, String subscription, AtomicLong backlog) {
+
+        Lane(String name, String topic, String subscription) {
+            this(name, topic, subscription, new AtomicLong());
+        }
+    }
+}
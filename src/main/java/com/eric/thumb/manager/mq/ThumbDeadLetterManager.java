@@ -0,0 +1,263 @@
+package com.eric.thumb.manager.mq;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.listener.thumb.msg.ThumbEventSchema;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.batch.ThumbPairClock;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
+import com.eric.thumb.mapper.ThumbDeadLetterMapper;
+import com.eric.thumb.model.entity.Thumb;
+import com.eric.thumb.model.entity.ThumbDeadLetter;
+import com.eric.thumb.model.enums.ThumbDeadLetterStatusEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.Message;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 点赞死信事件管理
+ *
+ * 1. 死信队列中的消息按批落表（thumb_dead_letter），记录原始 topic、消息体和失败原因
+ * 2. 管理员触发重放：按 id 顺序分页读取待重放事件，按限速走正常的批量落库路径
+ *    （折叠 -> thumb 表 -> 博客点赞数），同一事务内标记为已重放，重复触发不会重复计入
+ * 3. 死信事件进入死信队列之后，同一 (userId, blogId) 通常已经有更新的事件落库，重放时跳过已被取代的事件：
+ *    - Redis 中的点赞状态与事件相反（点赞事件但当前未点赞，或反之），说明用户之后又操作过
+ *    - 早于 {@link ThumbPairClock} 记录的已应用事件时间
+ *    跳过的事件同样标记为已重放
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbDeadLetterManager {
+
+    /**
+     * Pulsar 死信消息中记录原始 topic 的属性
+     */
+    private static final String REAL_TOPIC_PROPERTY = "REAL_TOPIC";
+
+    private static final String ORIGIN_MESSAGE_ID_PROPERTY = "ORIGIN_MESSAGE_ID";
+
+    private static final int MAX_REASON_LENGTH = 255;
+
+    private final ThumbDeadLetterMapper thumbDeadLetterMapper;
+
+    private final BatchProcessManager batchProcessManager;
+
+    private final ThumbDigestManager thumbDigestManager;
+
+    private final ThumbPairClock thumbPairClock;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final Counter persistedCounter;
+
+    private final Counter replayedCounter;
+
+    private final Counter supersededCounter;
+
+    private final AtomicBoolean replaying = new AtomicBoolean(false);
+
+    public ThumbDeadLetterManager(ThumbDeadLetterMapper thumbDeadLetterMapper,
+                                  BatchProcessManager batchProcessManager,
+                                  ThumbDigestManager thumbDigestManager,
+                                  ThumbPairClock thumbPairClock,
+                                  TransactionTemplate transactionTemplate,
+                                  MeterRegistry registry) {
+        this.thumbDeadLetterMapper = thumbDeadLetterMapper;
+        this.batchProcessManager = batchProcessManager;
+        this.thumbDigestManager = thumbDigestManager;
+        this.thumbPairClock = thumbPairClock;
+        this.transactionTemplate = transactionTemplate;
+        this.persistedCounter = Counter.builder("thumb.dlq.persisted.count")
+                .description("Dead-lettered thumb events persisted for replay")
+                .register(registry);
+        this.replayedCounter = Counter.builder("thumb.dlq.replayed.count")
+                .description("Dead-lettered thumb events replayed into the database")
+                .register(registry);
+        this.supersededCounter = Counter.builder("thumb.dlq.superseded.count")
+                .description("Dead-lettered thumb events skipped on replay because newer state superseded them")
+                .register(registry);
+    }
+
+    /**
+     * 批量落表死信消息
+     */
+    public void persist(List<Message<byte[]>> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        List<ThumbDeadLetter> deadLetters = new ArrayList<>(messages.size());
+        for (Message<byte[]> message : messages) {
+            deadLetters.add(toDeadLetter(message));
+        }
+        int inserted = thumbDeadLetterMapper.insertIgnoreBatch(deadLetters);
+        persistedCounter.increment(inserted);
+        log.warn("死信点赞事件已落表 {} 条，待管理员重放", inserted);
+    }
+
+    /**
+     * 待重放的死信事件数
+     */
+    public long countPending() {
+        return thumbDeadLetterMapper.selectCount(new LambdaQueryWrapper<ThumbDeadLetter>()
+                .eq(ThumbDeadLetter::getStatus, ThumbDeadLetterStatusEnum.PENDING.getValue()));
+    }
+
+    /**
+     * 异步重放死信事件，同一时刻只允许一个重放任务
+     *
+     * @param limit         最多重放的事件数
+     * @param ratePerSecond 每秒最多重放的事件数
+     * @return 是否成功启动
+     */
+    public boolean startReplay(int limit, int ratePerSecond) {
+        if (!replaying.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread.startVirtualThread(() -> {
+            try {
+                int replayed = replay(limit, ratePerSecond);
+                log.info("死信点赞事件重放完成，共 {} 条", replayed);
+            } catch (Exception e) {
+                log.error("死信点赞事件重放失败", e);
+            } finally {
+                replaying.set(false);
+            }
+        });
+        return true;
+    }
+
+    public boolean isReplaying() {
+        return replaying.get();
+    }
+
+    private int replay(int limit, int ratePerSecond) throws InterruptedException {
+        // 每页不超过 1 秒的配额，按页限速
+        int pageSize = Math.max(1, Math.min(ratePerSecond, 500));
+        long afterId = 0;
+        int replayed = 0;
+        while (replayed < limit) {
+            long start = System.nanoTime();
+            List<ThumbDeadLetter> page = thumbDeadLetterMapper.selectPending(afterId, Math.min(pageSize, limit - replayed));
+            if (page.isEmpty()) {
+                break;
+            }
+            afterId = page.get(page.size() - 1).getId();
+            replayed += replayPage(page);
+
+            long minNanos = TimeUnit.SECONDS.toNanos(page.size()) / ratePerSecond;
+            long sleepNanos = minNanos - (System.nanoTime() - start);
+            if (sleepNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(sleepNanos);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * 一页死信事件跳过已被取代的事件，其余按到达顺序折叠后落库，与状态标记在同一事务中
+     */
+    private int replayPage(List<ThumbDeadLetter> page) {
+        List<ThumbDeadLetter> current = thumbPairClock.filter(filterSuperseded(page), this::toEvent);
+        ThumbBatchFold fold = new ThumbBatchFold(current.size());
+        for (ThumbDeadLetter deadLetter : current) {
+            fold.add(deadLetter.getUserId(), deadLetter.getBlogId(),
+                    ThumbEvent.EventType.INCR.name().equals(deadLetter.getType()));
+        }
+        List<Long> ids = page.stream().map(ThumbDeadLetter::getId).toList();
+        Integer replayed = transactionTemplate.execute(status -> {
+            int marked = thumbDeadLetterMapper.markReplayed(ids);
+            if (marked != ids.size()) {
+                // 其他节点已经重放过其中的事件，回滚整页，下一轮重新读取
+                status.setRollbackOnly();
+                return 0;
+            }
+            BatchProcessManager.PersistResult result = batchProcessManager.persistThumbs(fold);
+            batchProcessManager.updateBlogThumbCount(result.blogDeltas().toNonZeroMap());
+            return marked;
+        });
+        replayedCounter.increment(replayed == null ? 0 : replayed);
+        return replayed == null ? 0 : replayed;
+    }
+
+    /**
+     * 跳过与 Redis 中当前点赞状态相反的事件；Redis 中没有这个字段时无法判断，保留
+     */
+    private List<ThumbDeadLetter> filterSuperseded(List<ThumbDeadLetter> deadLetters) {
+        List<Thumb> pairs = new ArrayList<>(deadLetters.size());
+        for (ThumbDeadLetter deadLetter : deadLetters) {
+            Thumb thumb = new Thumb();
+            thumb.setUserId(deadLetter.getUserId());
+            thumb.setBlogId(deadLetter.getBlogId());
+            pairs.add(thumb);
+        }
+        List<Boolean> states;
+        try {
+            states = thumbDigestManager.getStates(pairs);
+        } catch (Exception e) {
+            log.warn("读取点赞状态失败，只按事件时间判断死信事件是否已被取代", e);
+            return deadLetters;
+        }
+        List<ThumbDeadLetter> current = new ArrayList<>(deadLetters.size());
+        for (int i = 0; i < deadLetters.size(); i++) {
+            Boolean thumbed = states.get(i);
+            boolean incr = ThumbEvent.EventType.INCR.name().equals(deadLetters.get(i).getType());
+            if (thumbed != null && thumbed != incr) {
+                supersededCounter.increment();
+                continue;
+            }
+            current.add(deadLetters.get(i));
+        }
+        return current;
+    }
+
+    private ThumbEvent toEvent(ThumbDeadLetter deadLetter) {
+        return ThumbEvent.builder()
+                .userId(deadLetter.getUserId())
+                .blogId(deadLetter.getBlogId())
+                .type(ThumbEvent.EventType.valueOf(deadLetter.getType()))
+                .eventTime(deadLetter.getEventTime() == null ? null
+                        : LocalDateTime.ofInstant(deadLetter.getEventTime().toInstant(), ZoneId.systemDefault()))
+                .build();
+    }
+
+    private ThumbDeadLetter toDeadLetter(Message<byte[]> message) {
+        ThumbDeadLetter deadLetter = new ThumbDeadLetter();
+        deadLetter.setId(IdWorker.getId());
+        String originMessageId = message.getProperty(ORIGIN_MESSAGE_ID_PROPERTY);
+        deadLetter.setMessageId(StrUtil.isNotBlank(originMessageId) ? originMessageId : message.getMessageId().toString());
+        String originTopic = message.getProperty(REAL_TOPIC_PROPERTY);
+        deadLetter.setOriginTopic(StrUtil.isNotBlank(originTopic) ? originTopic : message.getTopicName());
+        deadLetter.setPayload(message.getData());
+        try {
+            ThumbEvent event = ThumbEventSchema.INSTANCE.decode(message.getData());
+            deadLetter.setUserId(event.getUserId());
+            deadLetter.setBlogId(event.getBlogId());
+            deadLetter.setType(event.getType().name());
+            if (event.getEventTime() != null) {
+                deadLetter.setEventTime(Date.from(event.getEventTime().atZone(ZoneId.systemDefault()).toInstant()));
+            }
+            deadLetter.setReason("超过最大重投次数");
+            deadLetter.setStatus(ThumbDeadLetterStatusEnum.PENDING.getValue());
+        } catch (Exception e) {
+            deadLetter.setReason(StrUtil.maxLength("消息无法解码: " + e.getMessage(), MAX_REASON_LENGTH - 3));
+            deadLetter.setStatus(ThumbDeadLetterStatusEnum.UNREADABLE.getValue());
+        }
+        return deadLetter;
+    }
+}
@@ -0,0 +1,25 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 点赞事件传输
+ *
+ * 写路径只依赖这个接口，由 thumb.event-bus.type 选择实现：
+ * 1. pulsar（默认）：{@link ThumbEventProducer}，经 Pulsar 由 {@link com.eric.thumb.listener.ThumbConsumer} 批量落库
+ * 2. ring-buffer：{@link ThumbRingBufferEventBus}，进程内环形缓冲直接批量落库，适用于单节点部署和压测，不需要 Broker
+ *
+ * @author Eric
+ */
+public interface ThumbEventBus {
+
+    /**
+     * 提交点赞事件
+     *
+     * @param event 点赞事件
+     * @return 事件被传输层接收时完成；无法接收时异常完成，调用方可以自行回滚
+     */
+    CompletableFuture<Void> send(ThumbEvent event);
+}
@@ -0,0 +1,311 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.listener.thumb.msg.ThumbEventCodec;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 点赞事件本地预写日志（WAL）
+ *
+ * Pulsar 发送失败或积压时，事件先追加到本地日志，由 {@link ThumbEventLogReplayer} 在 Broker 恢复后批量补发
+ *
+ * 存储结构：
+ * 1. 日志按段（segment）存储，每段是一个固定大小的内存映射文件，写满后滚动到下一段
+ * 2. 每条记录定长 32 字节：提交标记(1) + 事件二进制编码(26) + 填充(5)
+ *    先写事件内容、最后写提交标记，进程崩溃时不会读到半条记录
+ * 3. 读进度记录在 checkpoint 文件中（段号 + 段内下标），消费完的段直接删除
+ * 4. 段文件创建时写零分配磁盘空间：稀疏文件在磁盘已满时写映射区会触发 SIGBUS（JVM 抛出 InternalError），
+ *    预分配后磁盘已满只会在创建段文件时以 IOException 暴露
+ *
+ * @author Eric
+ */
+@Component
+@Slf4j
+public class ThumbEventLog {
+
+    private static final int RECORD_SIZE = 32;
+
+    private static final byte COMMITTED = 1;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    @Value("${thumb.wal.enabled:true}")
+    private boolean enabled;
+
+    @Value("${thumb.wal.dir:./data/thumb-wal}")
+    private String dir;
+
+    /**
+     * 单个段文件的大小（MB）
+     */
+    @Value("${thumb.wal.segment-size-mb:16}")
+    private int segmentSizeMb;
+
+    private Path dirPath;
+
+    /**
+     * 每段可容纳的记录数
+     */
+    private int segmentCapacity;
+
+    private long writeSegment;
+
+    private MappedByteBuffer writeBuffer;
+
+    private int writeIndex;
+
+    private long readSegment;
+
+    private MappedByteBuffer readBuffer;
+
+    private int readIndex;
+
+    private MappedByteBuffer checkpoint;
+
+    /**
+     * 尚未补发的记录数
+     */
+    private final AtomicLong pending = new AtomicLong();
+
+    @PostConstruct
+    public synchronized void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        dirPath = Paths.get(dir);
+        Files.createDirectories(dirPath);
+        segmentCapacity = segmentSizeMb * 1024 * 1024 / RECORD_SIZE;
+
+        List<Long> segments = listSegments();
+        if (segments.isEmpty()) {
+            segments.add(0L);
+        }
+        // 1. 恢复写位置：最后一段中第一条未提交的记录
+        writeSegment = segments.get(segments.size() - 1);
+        writeBuffer = mapSegment(writeSegment);
+        writeIndex = 0;
+        while (writeIndex < segmentCapacity && writeBuffer.get(writeIndex * RECORD_SIZE) == COMMITTED) {
+            writeIndex++;
+        }
+
+        // 2. 恢复读位置：checkpoint 中记录的段已被删除时，从最早的段开始
+        checkpoint = map(dirPath.resolve(CHECKPOINT_FILE), 12);
+        long checkpointSegment = checkpoint.getLong(0);
+        int checkpointIndex = checkpoint.getInt(8);
+        if (checkpointSegment < segments.get(0) || checkpointSegment > writeSegment) {
+            checkpointSegment = segments.get(0);
+            checkpointIndex = 0;
+        }
+        readSegment = checkpointSegment;
+        readIndex = checkpointIndex;
+        readBuffer = readSegment == writeSegment ? writeBuffer : mapSegment(readSegment);
+
+        // 中间的段都是写满后才滚动的
+        pending.set((writeSegment - readSegment) * segmentCapacity - readIndex + writeIndex);
+        if (pending.get() > 0) {
+            log.warn("本地点赞事件日志中有 {} 条事件待补发", pending.get());
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        force();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 是否没有待补发的事件
+     */
+    public boolean isEmpty() {
+        return pending.get() == 0;
+    }
+
+    /**
+     * 待补发的事件数
+     */
+    public long size() {
+        return pending.get();
+    }
+
+    /**
+     * 追加事件，要么全部写入，要么一条都不写
+     *
+     * @throws IllegalStateException 未开启本地日志
+     * @throws UncheckedIOException  创建段文件失败（如磁盘已满），此时没有写入任何事件
+     */
+    public synchronized void append(List<ThumbEvent> events) {
+        if (!enabled) {
+            throw new IllegalStateException("本地点赞事件日志未开启");
+        }
+        List<MappedByteBuffer> nextSegments = mapNextSegments(events.size());
+        for (ThumbEvent event : events) {
+            if (writeIndex == segmentCapacity) {
+                writeBuffer.force();
+                writeSegment++;
+                writeBuffer = nextSegments.removeFirst();
+                writeIndex = 0;
+            }
+            int position = writeIndex * RECORD_SIZE;
+            writeBuffer.put(position + 1, ThumbEventCodec.encode(event));
+            writeBuffer.put(position, COMMITTED);
+            writeIndex++;
+            pending.incrementAndGet();
+        }
+    }
+
+    /**
+     * 从读位置开始读取最多 max 条事件，不移动读位置
+     */
+    public synchronized List<ThumbEvent> peek(int max) {
+        List<ThumbEvent> events = new ArrayList<>();
+        if (!enabled) {
+            return events;
+        }
+        skipExhaustedSegment();
+        int end = Math.min(readIndex + max, readSegment == writeSegment ? writeIndex : segmentCapacity);
+        byte[] payload = new byte[ThumbEventCodec.ENCODED_SIZE];
+        for (int i = readIndex; i < end; i++) {
+            readBuffer.get(i * RECORD_SIZE + 1, payload);
+            events.add(ThumbEventCodec.decode(payload));
+        }
+        return events;
+    }
+
+    /**
+     * 确认已补发 count 条事件，移动读位置并持久化到 checkpoint
+     * count 不会超过上一次 peek 返回的条数，因此不会跨段
+     */
+    public synchronized void commit(int count) {
+        if (count <= 0) {
+            return;
+        }
+        readIndex += count;
+        pending.addAndGet(-count);
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putInt(8, readIndex);
+        skipExhaustedSegment();
+    }
+
+    /**
+     * 读位置在日志中的绝对位置（段号 × 每段记录数 + 段内下标），即 {@link #peek} 返回的第一条事件的位置
+     */
+    public synchronized long readPosition() {
+        return readSegment * segmentCapacity + readIndex;
+    }
+
+    /**
+     * 将内存映射的脏页刷到磁盘
+     */
+    public synchronized void force() {
+        if (!enabled) {
+            return;
+        }
+        writeBuffer.force();
+        checkpoint.force();
+    }
+
+    private void skipExhaustedSegment() {
+        if (readIndex < segmentCapacity || readSegment == writeSegment) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(segmentPath(readSegment));
+            readSegment++;
+            readIndex = 0;
+            readBuffer = readSegment == writeSegment ? writeBuffer : mapSegment(readSegment);
+            checkpoint.putLong(0, readSegment);
+            checkpoint.putInt(8, readIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 预先映射追加 count 条事件需要的后续段，失败时删除本次创建的段文件
+     */
+    private List<MappedByteBuffer> mapNextSegments(int count) {
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        long overflow = (long) writeIndex + count - segmentCapacity;
+        long segment = writeSegment + 1;
+        try {
+            for (; overflow > 0; segment++, overflow -= segmentCapacity) {
+                segments.add(mapSegment(segment));
+            }
+            return segments;
+        } catch (IOException e) {
+            for (long created = writeSegment + 1; created <= segment; created++) {
+                try {
+                    Files.deleteIfExists(segmentPath(created));
+                } catch (IOException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<Long> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(dirPath)) {
+            return new ArrayList<>(files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList());
+        }
+    }
+
+    private Path segmentPath(long segment) {
+        return dirPath.resolve("%020d%s".formatted(segment, SEGMENT_SUFFIX));
+    }
+
+    private MappedByteBuffer mapSegment(long segment) throws IOException {
+        return map(segmentPath(segment), (long) segmentCapacity * RECORD_SIZE);
+    }
+
+    private MappedByteBuffer map(Path path, long size) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+             FileChannel channel = file.getChannel()) {
+            preallocate(channel, size);
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * 从文件末尾写零直到 size，实际分配磁盘空间
+     */
+    private void preallocate(FileChannel channel, long size) throws IOException {
+        long position = channel.size();
+        if (position >= size) {
+            return;
+        }
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(size - position, 1024 * 1024));
+        while (position < size) {
+            zeros.clear().limit((int) Math.min(zeros.capacity(), size - position));
+            position += channel.write(zeros, position);
+        }
+        channel.force(false);
+    }
+}
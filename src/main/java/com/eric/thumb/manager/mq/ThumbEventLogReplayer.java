@@ -0,0 +1,64 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 本地点赞事件日志补发任务
+ * 定时把 {@link ThumbEventLog} 中的事件按批次补发到 Pulsar，发送成功后才移动读位置
+ *
+ * @author Eric
+ */
+@ConditionalOnProperty(prefix = "thumb.event-bus", name = "type", havingValue = "pulsar", matchIfMissing = true)
+@Component
+@Slf4j
+public class ThumbEventLogReplayer {
+
+    @Resource
+    private ThumbEventLog thumbEventLog;
+
+    @Resource
+    private ThumbEventProducer thumbEventProducer;
+
+    @Value("${thumb.wal.replay-batch-size:1000}")
+    private int batchSize;
+
+    /**
+     * 单次最多补发的批次数，避免长时间占用调度线程
+     */
+    @Value("${thumb.wal.replay-max-batches:50}")
+    private int maxBatches;
+
+    @Scheduled(fixedDelayString = "${thumb.wal.replay-interval-ms:1000}")
+    public void replay() {
+        if (!thumbEventLog.isEnabled()) {
+            return;
+        }
+        thumbEventLog.force();
+        int replayed = 0;
+        for (int i = 0; i < maxBatches && !thumbEventLog.isEmpty(); i++) {
+            List<ThumbEvent> events = thumbEventLog.peek(batchSize);
+            if (events.isEmpty()) {
+                break;
+            }
+            // 只确认从头开始连续发送成功的部分，保证顺序
+            int sent = thumbEventProducer.sendDirectly(thumbEventLog.readPosition(), events);
+            thumbEventLog.commit(sent);
+            replayed += sent;
+            if (sent < events.size()) {
+                log.warn("本地点赞事件补发中断，Broker 可能仍不可用，剩余 {} 条", thumbEventLog.size());
+                break;
+            }
+        }
+        if (replayed > 0) {
+            log.info("本地点赞事件补发 {} 条，剩余 {} 条", replayed, thumbEventLog.size());
+        }
+    }
+}
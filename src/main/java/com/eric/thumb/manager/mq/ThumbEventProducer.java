@@ -0,0 +1,493 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.listener.thumb.msg.ThumbEventSchema;
+import com.eric.thumb.manager.cache.HeavyKeeper;
+import com.eric.thumb.manager.cache.TopK;
+import com.eric.thumb.util.ThumbSlotUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pulsar.client.api.MessageId;
+import org.apache.pulsar.client.api.Schema;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.pulsar.core.ProducerBuilderCustomizer;
+import org.springframework.pulsar.core.PulsarTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 点赞事件生产者 - 微批 + 按 (userId, blogId) 合并
+ *
+ * 设计思路：
+ * 1. 写路径只把事件放进本地缓冲，不再逐条调用 sendAsync
+ * 2. 同一 (userId, blogId) 在窗口内只保留净状态：
+ *    - 第一条和最后一条事件类型相同：发送最后一条
+ *    - 第一条和最后一条事件类型不同：点赞后又取消（或反之），直接抵消，不发送
+ * 3. 每隔 lingerMs 统一刷出，交给开启批量 + 压缩的 Producer 发送
+ * 4. 消息 key 为 (userId, blogId) 的槽位，消费端 Key_Shared 订阅按 key 保序
+ * 5. 默认使用紧凑二进制格式，迁移期间可通过 thumb.producer.event-format=json 切回旧格式
+ * 6. 发送失败的事件写入本地日志 {@link ThumbEventLog}，由补发任务在 Broker 恢复后重新发送；
+ *    本地日志非空期间新事件也直接写入日志，保证同一 (userId, blogId) 的事件顺序。
+ *    发送失败要等回调才知道，同一 (userId, blogId) 上一条事件确认（或写入本地日志）之前，
+ *    新事件留在缓冲中继续合并，不会越过还在途的旧事件
+ * 7. 在途发送数有上限（maxInFlight），Broker 变慢时超出的事件写入本地日志（未开启本地日志则快速失败），
+ *    避免待确认的 Future 和消息缓冲在堆上无限堆积
+ * 8. 按 HeavyKeeper 判断博客热度：热点博客发到低延迟的热点 topic，其余发到批量 topic。
+ *    写路径使用自己的 HeavyKeeper 实例，不影响读路径（CacheManager）本地缓存的热点判断；补发本地日志只查询不计数，
+ *    同一事件不会被统计两次。
+ *    博客一旦被判定为热点，在 hotStickySeconds 内没有新事件之前一直走热点 topic，减少来回切换。
+ *    热度按节点统计，切换时批量 topic 中可能还有该博客的积压，同一 (userId, blogId) 的事件在两个 topic 之间不保证顺序，
+ *    由消费端按事件时间丢弃过期事件（{@link com.eric.thumb.manager.batch.ThumbPairClock}）
+ *
+ * 每个调用方拿到一个 Future：
+ * - 事件被后续事件覆盖或被抵消：正常完成（它的效果已经由最后一条事件体现）
+ * - 事件真正发送：随发送结果完成
+ * - 发送失败但已写入本地日志：正常完成，由补发任务保证最终送达
+ * - 发送失败且无法写入本地日志：异常完成，调用方可以自行回滚
+ *
+ * @author Eric
+ */
+@ConditionalOnProperty(prefix = "thumb.event-bus", name = "type", havingValue = "pulsar", matchIfMissing = true)
+@Component
+@Slf4j
+public class ThumbEventProducer implements ThumbEventBus {
+
+    private final PulsarTemplate<ThumbEvent> pulsarTemplate;
+
+    private final ProducerBuilderCustomizer<ThumbEvent> thumbProducerCustomizer;
+
+    private final ThumbEventLog thumbEventLog;
+
+    /**
+     * 写路径的热点检测，只由合并缓冲的刷出计数，参数与 CacheManager 的读路径检测一致
+     */
+    private final TopK hotKeyDetector = new HeavyKeeper(100, 100000, 5, 0.92, 10);
+
+    private final MeterRegistry registry;
+
+    private final Timer sendTimer;
+
+    private final Counter spilledCounter;
+
+    private final Counter rejectedCounter;
+
+    private final Counter cancelledCounter;
+
+    private final Counter hotCounter;
+
+    @Value("${thumb.producer.topic:thumb-topic}")
+    private String topic;
+
+    /**
+     * 热点博客使用的低延迟 topic
+     */
+    @Value("${thumb.producer.hot-topic:thumb-hot-topic}")
+    private String hotTopic;
+
+    /**
+     * 热点博客在多长时间没有新事件后回到批量 topic（秒）
+     */
+    @Value("${thumb.producer.hot-sticky-seconds:600}")
+    private long hotStickySeconds;
+
+    private Cache<Long, Boolean> hotBlogs;
+
+    /**
+     * 合并窗口（毫秒）
+     */
+    @Value("${thumb.producer.linger-ms:5}")
+    private long lingerMs;
+
+    /**
+     * 缓冲中最多保留的 (userId, blogId) 数量，超过后立即触发一次刷出
+     */
+    @Value("${thumb.producer.max-buffered:10000}")
+    private int maxBuffered;
+
+    /**
+     * 最大在途发送数（已交给 Pulsar 但尚未确认的事件数）
+     */
+    @Value("${thumb.producer.max-in-flight:20000}")
+    private int maxInFlight;
+
+    private Semaphore inFlight;
+
+    /**
+     * 事件编码格式：binary / json
+     */
+    @Value("${thumb.producer.event-format:binary}")
+    private String eventFormat;
+
+    private Schema<ThumbEvent> schema;
+
+    private final Map<PairKey, PendingEvent> buffer = new ConcurrentHashMap<>();
+
+    /**
+     * 已交给 Pulsar、尚未确认的 (userId, blogId)
+     */
+    private final Set<PairKey> sendingPairs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 补发时在失败事件之后已经发送成功的日志位置，下次补发时跳过，避免重复发送
+     */
+    private final Set<Long> replayedAhead = new HashSet<>();
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private ScheduledExecutorService flusher;
+
+    public ThumbEventProducer(PulsarTemplate<ThumbEvent> pulsarTemplate,
+                              @Qualifier("thumbProducerCustomizer") ProducerBuilderCustomizer<ThumbEvent> thumbProducerCustomizer,
+                              ThumbEventLog thumbEventLog,
+                              MeterRegistry registry) {
+        this.pulsarTemplate = pulsarTemplate;
+        this.thumbProducerCustomizer = thumbProducerCustomizer;
+        this.thumbEventLog = thumbEventLog;
+        this.registry = registry;
+        this.sendTimer = Timer.builder("thumb.producer.send.latency")
+                .description("Latency from handing a thumb event to Pulsar until it is acknowledged")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+        this.spilledCounter = Counter.builder("thumb.producer.spilled.count")
+                .description("Thumb events written to the local event log instead of Pulsar")
+                .register(registry);
+        this.rejectedCounter = Counter.builder("thumb.producer.rejected.count")
+                .description("Thumb events that could neither be sent nor spilled")
+                .register(registry);
+        this.cancelledCounter = Counter.builder("thumb.producer.cancelled.count")
+                .description("Thumb events cancelled out by coalescing")
+                .register(registry);
+        this.hotCounter = Counter.builder("thumb.producer.hot.count")
+                .description("Thumb events routed to the hot topic")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        schema = "json".equalsIgnoreCase(eventFormat) ? ThumbEventSchema.LEGACY_JSON : ThumbEventSchema.INSTANCE;
+        inFlight = new Semaphore(maxInFlight);
+        hotBlogs = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofSeconds(hotStickySeconds))
+                .build();
+        Gauge.builder("thumb.producer.in.flight", () -> maxInFlight - inFlight.availablePermits())
+                .description("Thumb events handed to Pulsar and not yet acknowledged")
+                .register(registry);
+        Gauge.builder("thumb.producer.buffered", buffer::size)
+                .description("Thumb events waiting in the coalescing buffer")
+                .register(registry);
+        Gauge.builder("thumb.producer.wal.pending", thumbEventLog::size)
+                .description("Thumb events waiting in the local event log")
+                .register(registry);
+        flusher = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("thumb-event-flusher").daemon().factory());
+        flusher.scheduleWithFixedDelay(this::flushQuietly, lingerMs, lingerMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.SECONDS);
+        // 停机前把缓冲中剩余的事件全部发出；等在途发送确认后再刷一次，发出因同一 (userId, blogId) 在途而留下的事件
+        flush();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!sendingPairs.isEmpty() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        flush();
+    }
+
+    /**
+     * 提交点赞事件
+     *
+     * @param event 点赞事件
+     * @return 事件生效（发送成功、被覆盖或被抵消）时完成
+     */
+    @Override
+    public CompletableFuture<Void> send(ThumbEvent event) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        PairKey key = PairKey.of(event);
+        List<CompletableFuture<Void>> superseded = new ArrayList<>(1);
+        buffer.compute(key, (k, pending) -> {
+            if (pending == null) {
+                return new PendingEvent(event.getType(), event, future);
+            }
+            // 旧事件被覆盖，保留窗口内第一条事件的类型用于判断净状态
+            superseded.add(pending.future());
+            return new PendingEvent(pending.firstType(), event, future);
+        });
+        superseded.forEach(f -> f.complete(null));
+
+        if (buffer.size() >= maxBuffered && flushScheduled.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+        return future;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("点赞事件刷出失败", e);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (buffer.isEmpty()) {
+            return;
+        }
+        List<PendingEvent> toSend = new ArrayList<>();
+        int cancelled = 0;
+        for (PairKey key : buffer.keySet()) {
+            PendingEvent pending = buffer.remove(key);
+            if (pending == null) {
+                continue;
+            }
+            if (pending.firstType() != pending.latest().getType()) {
+                // 窗口内状态来回切换，净效果为 0
+                pending.future().complete(null);
+                cancelled++;
+                continue;
+            }
+            toSend.add(pending);
+        }
+        if (cancelled > 0) {
+            cancelledCounter.increment(cancelled);
+            log.debug("点赞事件刷出: 发送 {} 条, 抵消 {} 条", toSend.size(), cancelled);
+        }
+        // 先检查在途，再检查本地日志：发送失败的回调先写入本地日志、再移出在途集合，
+        // 这里看到不在途时，失败的旧事件一定已经在本地日志中
+        List<PendingEvent> ready = new ArrayList<>(toSend.size());
+        for (PendingEvent pending : toSend) {
+            if (sendingPairs.contains(PairKey.of(pending.latest()))) {
+                // 同一 (userId, blogId) 的上一条事件还没有确认，放回缓冲等下一次刷出
+                requeue(pending);
+            } else {
+                ready.add(pending);
+            }
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+
+        if (!thumbEventLog.isEmpty()) {
+            // 本地日志中还有未补发的事件，新事件排在它们后面，避免乱序
+            spill(ready);
+            return;
+        }
+        List<PendingEvent> overflow = new ArrayList<>();
+        for (PendingEvent pending : ready) {
+            if (inFlight.tryAcquire()) {
+                doSend(pending);
+            } else {
+                overflow.add(pending);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            // 在途发送已满，Broker 处理不过来，超出部分写入本地日志
+            log.warn("点赞事件在途发送已达上限 {}，{} 条写入本地日志", maxInFlight, overflow.size());
+            spill(overflow);
+        }
+    }
+
+    /**
+     * 放回缓冲，缓冲中已有同一 (userId, blogId) 的新事件时与其合并
+     */
+    private void requeue(PendingEvent pending) {
+        List<CompletableFuture<Void>> superseded = new ArrayList<>(1);
+        buffer.merge(PairKey.of(pending.latest()), pending, (newer, older) -> {
+            superseded.add(older.future());
+            return new PendingEvent(older.firstType(), newer.latest(), newer.future());
+        });
+        superseded.forEach(f -> f.complete(null));
+    }
+
+    private void doSend(PendingEvent pending) {
+        PairKey key = PairKey.of(pending.latest());
+        sendingPairs.add(key);
+        long start = System.nanoTime();
+        sendAsync(pending.latest(), false).whenComplete((messageId, ex) -> {
+            inFlight.release();
+            sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            if (ex != null) {
+                log.warn("点赞事件发送失败，写入本地日志: userId={}, blogId={}",
+                        pending.latest().getUserId(), pending.latest().getBlogId(), ex);
+                spill(List.of(pending));
+            } else {
+                pending.future().complete(null);
+            }
+            // 写入本地日志之后才放行同一 (userId, blogId) 的后续事件
+            sendingPairs.remove(key);
+        });
+    }
+
+    /**
+     * 写入本地日志，写入成功即视为事件已被接收
+     */
+    private void spill(List<PendingEvent> pendingEvents) {
+        try {
+            thumbEventLog.append(pendingEvents.stream().map(PendingEvent::latest).toList());
+            spilledCounter.increment(pendingEvents.size());
+            pendingEvents.forEach(pending -> pending.future().complete(null));
+        } catch (Exception e) {
+            rejectedCounter.increment(pendingEvents.size());
+            log.error("点赞事件写入本地日志失败: {} 条", pendingEvents.size(), e);
+            pendingEvents.forEach(pending -> pending.future().completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 按顺序补发本地日志中的一批事件（不经过合并缓冲）
+     *
+     * 事件分成若干轮发送，每轮内 (userId, blogId) 互不相同、并发发送，上一轮全部确认后才发送下一轮，
+     * 同一 (userId, blogId) 的事件不会乱序。某一轮有事件失败时停止：
+     * 失败事件之前的部分视为已发送；之后已经发送成功的事件记下日志位置，下次补发时跳过，不会重复发送。
+     * 每轮最多 maxInFlight 条，按本轮条数获取在途许可，补发批次大于 maxInFlight 时也能推进
+     *
+     * @param position 第一条事件在本地日志中的位置
+     * @return 从头开始连续发送成功（或之前已发送）的事件数，在途发送已满时停在当前轮之前
+     */
+    public synchronized int sendDirectly(long position, List<ThumbEvent> events) {
+        int sent = 0;
+        while (sent < events.size()) {
+            // 1. 取出下一轮：遇到本轮已有的 (userId, blogId) 或达到在途上限为止
+            Set<PairKey> pairs = new HashSet<>();
+            List<Integer> indexes = new ArrayList<>();
+            int end = sent;
+            for (; end < events.size() && indexes.size() < maxInFlight && pairs.add(PairKey.of(events.get(end))); end++) {
+                if (!replayedAhead.contains(position + end)) {
+                    indexes.add(end);
+                }
+            }
+            // 按本轮实际发送的条数获取许可，Broker 仍然积压时停止补发
+            if (!inFlight.tryAcquire(indexes.size())) {
+                break;
+            }
+            List<CompletableFuture<MessageId>> futures = new ArrayList<>(indexes.size());
+            long start = System.nanoTime();
+            try {
+                for (int index : indexes) {
+                    futures.add(sendAsync(events.get(index), true));
+                }
+                // 2. 等待本轮全部完成，找到第一个失败的事件
+                int failed = end;
+                for (int i = 0; i < futures.size(); i++) {
+                    if (!await(futures.get(i))) {
+                        failed = Math.min(failed, indexes.get(i));
+                    }
+                }
+                sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                for (int i = 0; i < futures.size(); i++) {
+                    int index = indexes.get(i);
+                    if (index > failed && futures.get(i).isDone() && !futures.get(i).isCompletedExceptionally()) {
+                        replayedAhead.add(position + index);
+                    }
+                }
+                for (int index = sent; index < failed; index++) {
+                    replayedAhead.remove(position + index);
+                }
+                sent = failed;
+                if (failed < end) {
+                    break;
+                }
+            } finally {
+                inFlight.release(indexes.size());
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * 等待发送结果，发送超时由 Producer 的 sendTimeout 保证
+     */
+    private boolean await(CompletableFuture<MessageId> future) {
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // 不确定是否已发送，按失败处理，最坏情况下重复发送一次
+            return false;
+        } catch (ExecutionException e) {
+            log.warn("本地点赞事件补发失败", e.getCause());
+            return false;
+        }
+    }
+
+    /**
+     * @param replay 是否为补发本地日志，补发的事件不计入热度，避免同一事件重复统计
+     */
+    private CompletableFuture<MessageId> sendAsync(ThumbEvent event, boolean replay) {
+        String routingKey = ThumbSlotUtil.getRoutingKey(event.getUserId(), event.getBlogId());
+        return pulsarTemplate.newMessage(event)
+                .withTopic(topicOf(event, replay))
+                .withSchema(schema)
+                .withMessageCustomizer(messageBuilder -> messageBuilder.key(routingKey))
+                .withProducerCustomizer(thumbProducerCustomizer)
+                .sendAsync();
+    }
+
+    /**
+     * 选择事件的 topic：热点博客走热点 topic，其余走批量 topic
+     * 补发时只查询已判定的热点，不再计数
+     */
+    private String topicOf(ThumbEvent event, boolean replay) {
+        Long blogId = event.getBlogId();
+        if (hotBlogs.getIfPresent(blogId) != null) {
+            hotCounter.increment();
+            return hotTopic;
+        }
+        if (replay) {
+            return topic;
+        }
+        // 与 CacheManager 一致，以 blogId 作为热点 Key；多个线程都可能调用，HeavyKeeper 本身不是线程安全的
+        boolean hot;
+        synchronized (hotKeyDetector) {
+            hot = hotKeyDetector.add(blogId.toString(), 1).isHotKey();
+        }
+        if (hot) {
+            hotBlogs.put(blogId, Boolean.TRUE);
+            hotCounter.increment();
+            log.info("博客 {} 成为热点，点赞事件切换到热点 topic", blogId);
+            return hotTopic;
+        }
+        return topic;
+    }
+
+    private record PairKey(long userId, long blogId) {
+
+        static PairKey of(ThumbEvent event) {
+            return new PairKey(event.getUserId(), event.getBlogId());
+        }
+    }
+
+    /**
+     * @param firstType 窗口内第一条事件的类型
+     * @param latest    窗口内最新的事件
+     * @param future    最新事件对应的 Future
+     */
+    private record PendingEvent(ThumbEvent.EventType firstType, ThumbEvent latest, CompletableFuture<Void> future) {
+    }
+}
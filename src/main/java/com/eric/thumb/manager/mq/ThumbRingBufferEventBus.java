@@ -0,0 +1,271 @@
+package com.eric.thumb.manager.mq;
+
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.batch.ThumbCountAccumulator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 进程内环形缓冲点赞事件传输（thumb.event-bus.type=ring-buffer）
+ *
+ * 单节点部署和压测环境不需要 Broker，写路径直接把事件放进预分配的环形缓冲：
+ * 1. 多生产者按序号认领槽位，事件字段写入预分配的数组，不为每个事件分配对象；
+ *    槽位发布后记录序号，消费者按序号判断槽位是否可读
+ * 2. 单消费者线程一次取走所有已发布的连续槽位（不超过 maxBatch），取完即释放槽位，
+ *    同一 (userId, blogId) 的事件按写入顺序折叠
+ * 3. 折叠后走与 Pulsar 消费端相同的落库路径：事务内写 thumb 表和按实际写入的行计算的待计入点赞增量，
+ *    记录 id 交给 {@link ThumbCountAccumulator}；落库失败时退避后原地重试
+ * 4. 缓冲满时生产者等待消费者释放槽位，形成背压；等待超时则返回异常完成的 Future，调用方回滚
+ *
+ * 事件只在进程内存中，进程崩溃会丢失尚未落库的事件（最多一个缓冲），与 Pulsar 模式相比不提供持久化
+ *
+ * @author Eric
+ */
+@Component
+@ConditionalOnProperty(prefix = "thumb.event-bus", name = "type", havingValue = "ring-buffer")
+@Slf4j
+public class ThumbRingBufferEventBus implements ThumbEventBus {
+
+    private static final CompletableFuture<Void> ACCEPTED = CompletableFuture.completedFuture(null);
+
+    private static final long RETRY_INITIAL_BACKOFF_MS = 100;
+
+    private static final long RETRY_MAX_BACKOFF_MS = 5000;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final BatchProcessManager batchProcessManager;
+
+    private final ThumbCountAccumulator thumbCountAccumulator;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final MeterRegistry registry;
+
+    private final Counter eventCounter;
+
+    private final Counter rejectedCounter;
+
+    private final DistributionSummary batchSizeSummary;
+
+    private final Timer commitTimer;
+
+    /**
+     * 槽位数，向上取整为 2 的幂
+     */
+    @Value("${thumb.event-bus.ring.capacity:1048576}")
+    private int capacity;
+
+    /**
+     * 每批最多取走的事件数
+     */
+    @Value("${thumb.event-bus.ring.max-batch:5000}")
+    private int maxBatch;
+
+    /**
+     * 缓冲满时生产者最长等待时间（毫秒）
+     */
+    @Value("${thumb.event-bus.ring.publish-timeout-ms:1000}")
+    private long publishTimeoutMs;
+
+    private int mask;
+
+    private long[] userIds;
+
+    private long[] blogIds;
+
+    private boolean[] incrs;
+
+    /**
+     * 每个槽位最后发布的序号
+     */
+    private AtomicLongArray published;
+
+    /**
+     * 下一个待认领的序号
+     */
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * 消费者已经取走的最大序号
+     */
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    private volatile boolean running;
+
+    private Thread consumer;
+
+    public ThumbRingBufferEventBus(BatchProcessManager batchProcessManager,
+                                   ThumbCountAccumulator thumbCountAccumulator,
+                                   TransactionTemplate transactionTemplate,
+                                   MeterRegistry registry) {
+        this.batchProcessManager = batchProcessManager;
+        this.thumbCountAccumulator = thumbCountAccumulator;
+        this.transactionTemplate = transactionTemplate;
+        this.registry = registry;
+        this.eventCounter = Counter.builder("thumb.consumer.events")
+                .description("Thumb events consumed and persisted")
+                .tag("lane", "ring")
+                .register(registry);
+        this.rejectedCounter = Counter.builder("thumb.ring.rejected.count")
+                .description("Thumb events rejected because the ring buffer stayed full")
+                .register(registry);
+        this.batchSizeSummary = DistributionSummary.builder("thumb.consumer.batch.messages")
+                .description("Messages in one flushed thumb batch")
+                .tag("lane", "ring")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.commitTimer = Timer.builder("thumb.consumer.commit")
+                .description("Duration of persisting one folded thumb batch")
+                .tag("lane", "ring")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        userIds = new long[size];
+        blogIds = new long[size];
+        incrs = new boolean[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, -1);
+        }
+        Gauge.builder("thumb.consumer.buffered", () -> claimed.get() - 1 - consumed.get())
+                .description("Messages waiting in the consumer batch buffer")
+                .tag("lane", "ring")
+                .register(registry);
+        running = true;
+        consumer = Thread.ofPlatform().name("thumb-ring-consumer").daemon().start(this::consumeLoop);
+        log.info("点赞事件使用进程内环形缓冲传输，槽位 {}", size);
+    }
+
+    /**
+     * 停止接收后把已发布的事件全部落库
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        consumer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+
+    @Override
+    public CompletableFuture<Void> send(ThumbEvent event) {
+        // 认领序号之前先等待空位，超时则拒绝；认领之后序号必须发布，不能再放弃
+        if (!running || !awaitCapacity(claimed.get() - (mask + 1), true)) {
+            rejectedCounter.increment();
+            return CompletableFuture.failedFuture(new RuntimeException("点赞事件缓冲已满"));
+        }
+        long sequence = claimed.getAndIncrement();
+        // 并发认领时可能越过上面的检查，等待消费者释放这个槽位上一轮的事件
+        awaitCapacity(sequence - (mask + 1), false);
+        publish(sequence, event.getUserId(), event.getBlogId(), event.getType() == ThumbEvent.EventType.INCR);
+        return ACCEPTED;
+    }
+
+    /**
+     * 等待消费者取走 wrapPoint 及之前的事件，先自旋、再短暂休眠
+     *
+     * @param bounded 是否最多等待 publishTimeoutMs
+     * @return 是否等到
+     */
+    private boolean awaitCapacity(long wrapPoint, boolean bounded) {
+        long start = System.nanoTime();
+        int spins = 0;
+        while (consumed.get() < wrapPoint) {
+            if (bounded && System.nanoTime() - start > TimeUnit.MILLISECONDS.toNanos(publishTimeoutMs)) {
+                return false;
+            }
+            if (++spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        return true;
+    }
+
+    private void publish(long sequence, long userId, long blogId, boolean incr) {
+        int index = (int) (sequence & mask);
+        userIds[index] = userId;
+        blogIds[index] = blogId;
+        incrs[index] = incr;
+        // 有序写入：消费者看到序号时，上面的字段一定已经可见
+        published.lazySet(index, sequence);
+    }
+
+    private void consumeLoop() {
+        while (true) {
+            long next = consumed.get() + 1;
+            long available = next - 1;
+            while (available - next + 1 < maxBatch && published.get((int) ((available + 1) & mask)) == available + 1) {
+                available++;
+            }
+            if (available < next) {
+                if (!running && claimed.get() <= next) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            int count = (int) (available - next + 1);
+            ThumbBatchFold fold = new ThumbBatchFold(count);
+            for (long sequence = next; sequence <= available; sequence++) {
+                int index = (int) (sequence & mask);
+                fold.add(userIds[index], blogIds[index], incrs[index]);
+            }
+            // 已经复制到折叠结果中，释放槽位
+            consumed.set(available);
+            persist(fold, count);
+        }
+    }
+
+    /**
+     * 与 Pulsar 消费端相同：事务内写 thumb 表和待计入的点赞增量，点赞数交给累加器合并更新，失败时退避后原地重试
+     */
+    private void persist(ThumbBatchFold fold, int count) {
+        long backoffMs = RETRY_INITIAL_BACKOFF_MS;
+        List<Long> pendingIds;
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                pendingIds = transactionTemplate.execute(status ->
+                        batchProcessManager.recordPendingDeltas(batchProcessManager.persistThumbs(fold).blogDeltas()));
+                commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                break;
+            } catch (Exception e) {
+                log.error("点赞批次落库失败，{}ms 后重试 lane=ring, size={}", backoffMs, count, e);
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(backoffMs));
+                backoffMs = Math.min(backoffMs * 2, RETRY_MAX_BACKOFF_MS);
+            }
+        }
+        eventCounter.increment(fold.eventCount());
+        batchSizeSummary.record(count);
+        if (pendingIds == null) {
+            return;
+        }
+        thumbCountAccumulator.add(pendingIds, () -> {
+        });
+    }
+}
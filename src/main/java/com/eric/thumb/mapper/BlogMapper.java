@@ -5,6 +5,8 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.eric.thumb.model.entity.Blog;
 import org.apache.ibatis.annotations.Param;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -15,6 +17,14 @@ import java.util.Map;
 */
 public interface BlogMapper extends BaseMapper<Blog> {
     void batchUpdateThumbCount(@Param("countMap") Map<Long, Long> countMap);
+
+    /**
+     * 查询博客点赞数：blog.thumbCount 加上尚未合并的分片增量
+     * 同一条语句读取，不会因为分片合并而出现重复计数或少计
+     *
+     * @return 只填充 id、thumbCount
+     */
+    List<Blog> selectThumbCounts(@Param("blogIds") Collection<Long> blogIds);
 }
 
 
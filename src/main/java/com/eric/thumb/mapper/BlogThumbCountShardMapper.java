@@ -0,0 +1,34 @@
+package com.eric.thumb.mapper;
+
+import com.eric.thumb.model.entity.BlogThumbCountShard;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Eric
+ * @description 针对表【blog_thumb_count_shard】的数据库操作Mapper
+ */
+public interface BlogThumbCountShardMapper {
+
+    /**
+     * 将增量累加到对应槽位，槽位不存在时插入
+     */
+    void batchAddThumbCount(@Param("shards") List<BlogThumbCountShard> shards);
+
+    /**
+     * 查询最多 limit 个存在分片的博客 id
+     */
+    List<Long> selectBlogIds(@Param("limit") int limit);
+
+    /**
+     * 锁定博客的全部分片，合并期间新的增量会等待合并事务提交
+     */
+    List<BlogThumbCountShard> selectByBlogIdsForUpdate(@Param("blogIds") Collection<Long> blogIds);
+
+    /**
+     * 删除博客的全部分片
+     */
+    int deleteByBlogIds(@Param("blogIds") Collection<Long> blogIds);
+}
@@ -0,0 +1,28 @@
+package com.eric.thumb.mapper;
+
+import com.eric.thumb.model.entity.BlogThumbDeltaPending;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Eric
+ * @description 针对表【blog_thumb_delta_pending】的数据库操作Mapper
+ */
+public interface BlogThumbDeltaPendingMapper {
+
+    void batchInsert(@Param("deltas") List<BlogThumbDeltaPending> deltas);
+
+    /**
+     * 锁定仍然存在的增量记录，已被其他事务计入并删除的不再返回
+     */
+    List<BlogThumbDeltaPending> selectByIdsForUpdate(@Param("ids") Collection<Long> ids);
+
+    /**
+     * 锁定创建超过 ageSeconds 秒的增量记录，跳过其他事务已锁定的
+     */
+    List<BlogThumbDeltaPending> selectStaleForUpdate(@Param("ageSeconds") long ageSeconds, @Param("limit") int limit);
+
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,26 @@
+package com.eric.thumb.mapper;
+
+import com.eric.thumb.model.entity.ThumbConsumeWatermark;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Eric
+ * @description 针对表【thumb_consume_watermark】的数据库操作Mapper
+ */
+public interface ThumbConsumeWatermarkMapper {
+
+    /**
+     * 按 (topic, slot) 批量查询水位
+     *
+     * @param watermarks 只需要 topic、slot
+     */
+    List<ThumbConsumeWatermark> selectByKeys(@Param("watermarks") Collection<ThumbConsumeWatermark> watermarks);
+
+    /**
+     * 批量推进水位，只会变大不会回退
+     */
+    void batchAdvance(@Param("watermarks") Collection<ThumbConsumeWatermark> watermarks);
+}
@@ -0,0 +1,32 @@
+package com.eric.thumb.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.eric.thumb.model.entity.ThumbDeadLetter;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Eric
+ * @description 针对表【thumb_dead_letter】的数据库操作Mapper
+ */
+public interface ThumbDeadLetterMapper extends BaseMapper<ThumbDeadLetter> {
+
+    /**
+     * 多行插入死信事件，同一条消息重复投递时按 messageId 唯一索引跳过
+     */
+    int insertIgnoreBatch(@Param("deadLetters") List<ThumbDeadLetter> deadLetters);
+
+    /**
+     * 按 id 顺序查询一页待重放的死信事件
+     */
+    List<ThumbDeadLetter> selectPending(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 标记为已重放，只更新仍处于待重放状态的记录
+     *
+     * @return 实际更新的行数
+     */
+    int markReplayed(@Param("ids") Collection<Long> ids);
+}
@@ -0,0 +1,23 @@
+package com.eric.thumb.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+/**
+ * @author Eric
+ * @description 针对表【thumb_job_fence】的数据库操作Mapper
+ */
+public interface ThumbJobFenceMapper {
+
+    /**
+     * 推进任务的防护令牌，只会变大不会回退
+     */
+    void advance(@Param("job") String job, @Param("token") long token);
+
+    /**
+     * 查询任务当前的防护令牌并加共享锁，需要在事务中调用
+     * 推进令牌需要等持有共享锁的事务结束，推进之后的事务读到的一定是新令牌
+     *
+     * @return 没有记录时返回 null
+     */
+    Long selectTokenForShare(@Param("job") String job);
+}
@@ -2,7 +2,13 @@ package com.eric.thumb.mapper;
 
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.eric.thumb.model.entity.Blog;
 import com.eric.thumb.model.entity.Thumb;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
+
+import java.util.Collection;
+import java.util.List;
 
 /**
  * @author Eric
@@ -12,8 +18,74 @@ import com.eric.thumb.model.entity.Thumb;
 */
 public interface ThumbMapper extends BaseMapper<Thumb> {
 
-}
+    /**
+     * 按 (userId, blogId) 批量删除点赞记录
+     *
+     * @param thumbs 只需要 userId、blogId，调用方负责控制单次数量
+     * @return 删除的行数
+     */
+    int deleteByUserBlogPairs(@Param("thumbs") List<Thumb> thumbs);
+
+    /**
+     * 多行 INSERT IGNORE 批量插入点赞记录
+     * 依赖 (userId, blogId) 唯一索引，已存在的记录直接跳过，消息重投、对账补发都可以重复执行
+     *
+     * @param thumbs 需要 id、userId、blogId，调用方负责控制单次数量
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("thumbs") List<Thumb> thumbs);
+
+    /**
+     * 查询一批用户的 (userId, blogId, createTime)，按 userId 走 (userId, blogId) 唯一索引
+     *
+     * @param userIds 调用方负责控制单次数量
+     */
+    List<Thumb> selectUserBlogPairs(@Param("userIds") Collection<Long> userIds);
 
+    /**
+     * 查询一批 (userId, blogId) 中已经存在的记录，只返回 userId、blogId
+     *
+     * @param thumbs 只需要 userId、blogId，调用方负责控制单次数量
+     */
+    List<Thumb> selectExistingPairs(@Param("thumbs") List<Thumb> thumbs);
 
+    /**
+     * 与 selectExistingPairs 相同，但对查到的记录加排他锁（SELECT ... FOR UPDATE），需要在事务中调用
+     * 加锁后的记录在事务结束前不会被其他事务删除
+     *
+     * @param thumbs 只需要 userId、blogId，调用方负责控制单次数量
+     */
+    List<Thumb> lockExistingPairs(@Param("thumbs") List<Thumb> thumbs);
 
+    /**
+     * 查询一批主键中已经存在的主键
+     *
+     * @param ids 调用方负责控制单次数量
+     */
+    List<Long> selectExistingIds(@Param("ids") Collection<Long> ids);
 
+    /**
+     * 按主键顺序从 afterId 之后数 limit 行，返回这一段的最大主键，作为按主键分段扫描的上界
+     *
+     * @return 没有更多记录时返回 null
+     */
+    Long selectRangeUpperId(@Param("afterId") long afterId, @Param("limit") int limit);
+
+    /**
+     * 按博客统计主键区间 (afterId, upperId] 内的点赞数，只走主键范围扫描
+     *
+     * @return 只填充 id（博客 ID）、thumbCount
+     */
+    List<Blog> countByBlogInIdRange(@Param("afterId") long afterId, @Param("upperId") long upperId);
+
+    /**
+     * 查询主键区间 (afterId, upperId] 内的点赞记录，只返回 userId、blogId、createTime
+     */
+    List<Thumb> selectByIdRange(@Param("afterId") long afterId, @Param("upperId") long upperId);
+
+    /**
+     * 按主键顺序流式读取 afterId 之后的 limit 条点赞记录，只返回 id、userId、blogId、createTime
+     * 需要在事务（或打开的 SqlSession）中遍历，结果集不会整体加载到内存
+     */
+    Cursor<Thumb> streamAfterId(@Param("afterId") long afterId, @Param("limit") int limit);
+}
@@ -0,0 +1,26 @@
+package com.eric.thumb.mapper;
+
+import com.eric.thumb.model.entity.ThumbUserDigest;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * @author Eric
+ * @description 针对表【thumb_user_digest】的数据库操作Mapper
+ */
+public interface ThumbUserDigestMapper {
+
+    List<ThumbUserDigest> selectByUserIds(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * 批量累加摘要增量：点赞数相加，哈希分量异或
+     */
+    void batchApply(@Param("digests") Collection<ThumbUserDigest> digests);
+
+    /**
+     * 按 thumb 表重新计算一批用户的摘要，没有点赞的用户写入零值
+     */
+    void rebuildByUserIds(@Param("userIds") Collection<Long> userIds);
+}
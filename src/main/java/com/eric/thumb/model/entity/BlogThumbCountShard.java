@@ -0,0 +1,31 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 博客点赞数分片
+ * 热点博客的点赞增量分散写入 N 个槽位，定期合并回 blog.thumbCount
+ *
+ * @author Eric
+ * @TableName blog_thumb_count_shard
+ */
+@TableName(value = "blog_thumb_count_shard")
+@Data
+public class BlogThumbCountShard {
+
+    /**
+     * 博客 id，与 slot 组成主键
+     */
+    private Long blogId;
+
+    /**
+     * 槽位
+     */
+    private Integer slot;
+
+    /**
+     * 尚未合并到 blog 表的点赞增量
+     */
+    private Long thumbCount;
+}
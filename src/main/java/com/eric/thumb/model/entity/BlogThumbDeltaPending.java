@@ -0,0 +1,36 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 待计入的博客点赞增量
+ * 与 thumb 表在同一事务中写入，由点赞数累加器合并进博客点赞数后删除；
+ * 进程崩溃时留下的记录由其他节点接管，点赞数不依赖进程内存
+ *
+ * @author Eric
+ * @TableName blog_thumb_delta_pending
+ */
+@TableName(value = "blog_thumb_delta_pending")
+@Data
+public class BlogThumbDeltaPending {
+
+    /**
+     * 雪花 id
+     */
+    private Long id;
+
+    private Long blogId;
+
+    /**
+     * 点赞增量
+     */
+    private Long delta;
+
+    /**
+     * 创建时间，数据库默认值
+     */
+    private Date createTime;
+}
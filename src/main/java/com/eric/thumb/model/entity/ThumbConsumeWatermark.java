@@ -0,0 +1,31 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 点赞事件消费水位
+ * 记录每个 (分区 topic, 槽位) 已经计入博客点赞数的最大消息位置
+ *
+ * @author Eric
+ * @TableName thumb_consume_watermark
+ */
+@TableName(value = "thumb_consume_watermark")
+@Data
+public class ThumbConsumeWatermark {
+
+    /**
+     * 分区 topic 全名
+     */
+    private String topic;
+
+    /**
+     * (userId, blogId) 槽位
+     */
+    private Integer slot;
+
+    /**
+     * 消息位置：ledgerId(8) + entryId(8) + batchIndex(4)，按字节比较即按消息顺序比较
+     */
+    private byte[] position;
+}
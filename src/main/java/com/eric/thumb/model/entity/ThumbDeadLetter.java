@@ -0,0 +1,72 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+import java.util.Date;
+
+/**
+ * 点赞死信事件
+ * 超过最大重投次数进入 thumb-dlq-topic 的点赞事件，落表后由管理员触发重放
+ *
+ * @author Eric
+ * @TableName thumb_dead_letter
+ */
+@TableName(value = "thumb_dead_letter")
+@Data
+public class ThumbDeadLetter {
+
+    @TableId(type = IdType.ASSIGN_ID)
+    private Long id;
+
+    /**
+     * 原始消息 id
+     */
+    private String messageId;
+
+    /**
+     * 原始 topic
+     */
+    private String originTopic;
+
+    /**
+     * 原始消息体，无法解码时用于人工排查
+     */
+    private byte[] payload;
+
+    private Long userId;
+
+    private Long blogId;
+
+    /**
+     * INCR / DECR
+     */
+    private String type;
+
+    /**
+     * 事件时间
+     */
+    private Date eventTime;
+
+    /**
+     * 失败原因
+     */
+    private String reason;
+
+    /**
+     * 状态：0-待重放 1-已重放 2-无法解码
+     */
+    private Integer status;
+
+    /**
+     * 创建时间
+     */
+    private Date createTime;
+
+    /**
+     * 重放时间
+     */
+    private Date replayTime;
+}
@@ -0,0 +1,26 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 定时任务防护令牌
+ * 记录每个任务最新租约持有者的令牌，任务的数据库写入在同一事务中校验
+ *
+ * @author Eric
+ * @TableName thumb_job_fence
+ */
+@TableName(value = "thumb_job_fence")
+@Data
+public class ThumbJobFence {
+
+    /**
+     * 任务名
+     */
+    private String job;
+
+    /**
+     * 最新的防护令牌，只增不减
+     */
+    private Long token;
+}
@@ -0,0 +1,33 @@
+package com.eric.thumb.model.entity;
+
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+
+/**
+ * 用户点赞摘要
+ * 与 thumb 表在同一事务中维护，对账时先比较 Redis 与 MySQL 的摘要，一致的用户不再逐条比对
+ *
+ * @author Eric
+ * @TableName thumb_user_digest
+ */
+@TableName(value = "thumb_user_digest")
+@Data
+public class ThumbUserDigest {
+
+    private Long userId;
+
+    /**
+     * 点赞数
+     */
+    private Long thumbCount;
+
+    /**
+     * blogId 哈希第一分量的异或
+     */
+    private Long digest1;
+
+    /**
+     * blogId 哈希第二分量的异或
+     */
+    private Long digest2;
+}
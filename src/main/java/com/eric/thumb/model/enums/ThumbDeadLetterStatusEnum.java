@@ -0,0 +1,24 @@
+package com.eric.thumb.model.enums;
+
+import lombok.Getter;
+
+/**
+ * 点赞死信事件状态
+ *
+ * @author Eric
+ */
+@Getter
+public enum ThumbDeadLetterStatusEnum {
+    // 待重放
+    PENDING(0),
+    // 已重放
+    REPLAYED(1),
+    // 无法解码，需要人工处理
+    UNREADABLE(2);
+
+    private final int value;
+
+    ThumbDeadLetterStatusEnum(int value) {
+        this.value = value;
+    }
+}
@@ -54,6 +54,11 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
     private BlogVO getBlogVO(Blog blog, User loginUser) {
         BlogVO blogVO = new BlogVO();
         BeanUtil.copyProperties(blog, blogVO);
+        // 点赞数包含热点博客尚未合并的分片增量
+        Integer thumbCount = getThumbCountMap(List.of(blog.getId())).get(blog.getId());
+        if (thumbCount != null) {
+            blogVO.setThumbCount(thumbCount);
+        }
 
         if (loginUser == null) {
             return blogVO;
@@ -101,15 +106,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog>
 
 
 
+        Map<Long, Integer> thumbCountMap = blogList.isEmpty()
+                ? Map.of()
+                : getThumbCountMap(blogList.stream().map(Blog::getId).toList());
+
         return blogList.stream()
                 .map(blog -> {
                     BlogVO blogVO = BeanUtil.copyProperties(blog, BlogVO.class);
                     blogVO.setHasThumb(blogIdHasThumbMap.get(blog.getId()));
+                    blogVO.setThumbCount(thumbCountMap.getOrDefault(blog.getId(), blog.getThumbCount()));
                     return blogVO;
                 })
                 .toList();
     }
 
+    /**
+     * 查询博客点赞数（blog.thumbCount + 未合并的分片增量）
+     */
+    private Map<Long, Integer> getThumbCountMap(List<Long> blogIds) {
+        return this.baseMapper.selectThumbCounts(blogIds).stream()
+                .collect(Collectors.toMap(Blog::getId, Blog::getThumbCount));
+    }
+
 
 }
 
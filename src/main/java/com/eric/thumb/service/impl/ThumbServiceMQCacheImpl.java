@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.eric.thumb.constant.ThumbConstant;
 import com.eric.thumb.listener.thumb.msg.ThumbEvent;
 import com.eric.thumb.manager.cache.CacheManager;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
+import com.eric.thumb.manager.mq.ThumbEventBus;
 import com.eric.thumb.mapper.ThumbMapper;
 import com.eric.thumb.model.dto.thumb.DoThumbRequest;
 import com.eric.thumb.model.entity.Thumb;
@@ -16,8 +18,6 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.pulsar.core.PulsarTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -34,7 +34,7 @@ import java.util.concurrent.TimeUnit;
  * ✅ 热点检测和缓存决策完全自动化
  *
  * 核心设计原则：
- * 1. 写入路径统一：所有数据都发送到同一个MQ，复用现有的批量消费者
+ * 1. 写入路径统一：所有数据都经由ThumbEventBus（默认 Pulsar）发送，复用现有的批量消费者
  * 2. 读取路径交给CacheManager：业务代码无需关心缓存策略
  * 3. 架构极简：移除冗余逻辑，让专业组件做专业的事
  * 4. 充分复用：利用现有的ThumbConsumerConfig(1000条批量处理)
@@ -48,9 +48,9 @@ import java.util.concurrent.TimeUnit;
 public class ThumbServiceMQCacheImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService {
 
     private final UserService userService;
-    private final RedisTemplate<String, Object> redisTemplate;
-    private final PulsarTemplate<ThumbEvent> pulsarTemplate;
+    private final ThumbEventBus thumbEventBus;
     private final CacheManager cacheManager;
+    private final ThumbDigestManager thumbDigestManager;
     private final RedissonClient redissonClient;
 
     /**
@@ -80,9 +80,9 @@ public class ThumbServiceMQCacheImpl extends ServiceImpl<ThumbMapper, Thumb> imp
                         throw new RuntimeException("用户已点赞");
                     }
 
-                    // 2. Redis记录点赞状态
+                    // 2. Redis记录点赞状态，同时更新用户点赞摘要
                     String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUserId);
-                    redisTemplate.opsForHash().put(userThumbKey, blogId.toString(), System.currentTimeMillis());
+                    thumbDigestManager.markThumbed(loginUserId, blogId.toString(), System.currentTimeMillis());
 
                     // 3. 本地缓存设置 为 【已点赞】
                     cacheManager.put(userThumbKey, blogId.toString(), System.currentTimeMillis());
@@ -93,8 +93,8 @@ public class ThumbServiceMQCacheImpl extends ServiceImpl<ThumbMapper, Thumb> imp
                             .type(ThumbEvent.EventType.INCR)
                             .eventTime(LocalDateTime.now())
                             .build();
-                    pulsarTemplate.sendAsync("thumb-topic", thumbEvent).exceptionally(ex -> {
-                        redisTemplate.opsForHash().delete(userThumbKey, blogId.toString());
+                    thumbEventBus.send(thumbEvent).exceptionally(ex -> {
+                        thumbDigestManager.markUnthumbed(loginUserId, blogId.toString());
                         cacheManager.putIfPresent(userThumbKey, blogId.toString(), ThumbConstant.UN_THUMB_CONSTANT);
                         log.error("点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, ex);
                         return null;
@@ -141,9 +141,9 @@ public class ThumbServiceMQCacheImpl extends ServiceImpl<ThumbMapper, Thumb> imp
                         throw new RuntimeException("用户未点赞");
                     }
 
-                    // 2. Redis删除点赞记录
+                    // 2. Redis标记为未点赞，同时更新用户点赞摘要
                     String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUserId);
-                    redisTemplate.opsForHash().delete(userThumbKey, blogId.toString());
+                    thumbDigestManager.markUnthumbed(loginUserId, blogId.toString());
 
                     // 3. 本地缓存设置 为 【未点赞】
                     cacheManager.put(userThumbKey, blogId.toString(), ThumbConstant.UN_THUMB_CONSTANT);
@@ -155,8 +155,8 @@ public class ThumbServiceMQCacheImpl extends ServiceImpl<ThumbMapper, Thumb> imp
                             .type(ThumbEvent.EventType.DECR)
                             .eventTime(LocalDateTime.now())
                             .build();
-                    pulsarTemplate.sendAsync("thumb-topic", thumbEvent).exceptionally(ex -> {
-                        redisTemplate.opsForHash().put(userThumbKey, blogId.toString(), true);
+                    thumbEventBus.send(thumbEvent).exceptionally(ex -> {
+                        thumbDigestManager.markThumbed(loginUserId, blogId.toString(), true);
                         cacheManager.putIfPresent(userThumbKey, blogId.toString(), true);
                         log.error("取消点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, ex);
                         return null;
@@ -3,7 +3,10 @@ package com.eric.thumb.service.impl;
 import cn.hutool.core.date.StopWatch;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.constant.ThumbConstant;
 import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
+import com.eric.thumb.manager.mq.ThumbEventBus;
 import com.eric.thumb.mapper.ThumbMapper;
 import com.eric.thumb.model.dto.thumb.DoThumbRequest;
 import com.eric.thumb.model.entity.Thumb;
@@ -15,8 +18,7 @@ import com.eric.thumb.util.RedisKeyUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.pulsar.core.PulsarTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
@@ -35,11 +37,15 @@ import java.util.List;
 public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
         implements ThumbService {
   
+    private static final String UN_THUMB_VALUE = String.valueOf(ThumbConstant.UN_THUMB_CONSTANT);
+
     private final UserService userService;
   
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ThumbDigestManager thumbDigestManager;
   
-    private final PulsarTemplate<ThumbEvent> pulsarTemplate;
+    private final ThumbEventBus thumbEventBus;
   
     @Override  
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
@@ -53,10 +59,10 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
         // 执行 Lua 脚本，点赞存入 Redis
         StopWatch stopWatch = new StopWatch();
         stopWatch.start("redis操作");
-        long result = redisTemplate.execute(  
+        long result = stringRedisTemplate.execute(
                 RedisLuaScriptConstant.THUMB_SCRIPT_MQ,
-                List.of(userThumbKey),
-                blogId  
+                List.of(userThumbKey, RedisKeyUtil.getUserThumbDigestKey(loginUserId)),
+                blogId.toString()
         );  
         if (LuaStatusEnum.FAIL.getValue() == result) {
             throw new RuntimeException("用户已点赞");  
@@ -72,8 +78,8 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
                 .type(ThumbEvent.EventType.INCR)  
                 .eventTime(LocalDateTime.now())
                 .build();  
-        pulsarTemplate.sendAsync("thumb-topic", thumbEvent).exceptionally(ex -> {  
-            redisTemplate.opsForHash().delete(userThumbKey, blogId.toString(), true);  
+        thumbEventBus.send(thumbEvent).exceptionally(ex -> {  
+            thumbDigestManager.markUnthumbed(loginUserId, blogId.toString());
             log.error("点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, ex);  
             return null;  
         });
@@ -92,11 +98,11 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
         Long loginUserId = loginUser.getId();  
         Long blogId = doThumbRequest.getBlogId();  
         String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUserId);  
-        // 执行 Lua 脚本，点赞记录从 Redis 删除  
-        long result = redisTemplate.execute(  
+        // 执行 Lua 脚本，Redis 中的点赞记录改为未点赞缓存
+        long result = stringRedisTemplate.execute(
                 RedisLuaScriptConstant.UNTHUMB_SCRIPT_MQ,  
-                List.of(userThumbKey),  
-                blogId  
+                List.of(userThumbKey, RedisKeyUtil.getUserThumbDigestKey(loginUserId)),
+                blogId.toString()
         );  
         if (LuaStatusEnum.FAIL.getValue() == result) {  
             throw new RuntimeException("用户未点赞");  
@@ -107,8 +113,8 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
                 .type(ThumbEvent.EventType.DECR)  
                 .eventTime(LocalDateTime.now())  
                 .build();  
-        pulsarTemplate.sendAsync("thumb-topic", thumbEvent).exceptionally(ex -> {  
-            redisTemplate.opsForHash().put(userThumbKey, blogId.toString(), true);  
+        thumbEventBus.send(thumbEvent).exceptionally(ex -> {  
+            thumbDigestManager.markThumbed(loginUserId, blogId.toString(), 1);
             log.error("点赞事件发送失败: userId={}, blogId={}", loginUserId, blogId, ex);  
             return null;  
         });  
@@ -116,9 +122,13 @@ public class ThumbServiceMQImpl extends ServiceImpl<ThumbMapper, Thumb>
         return true;  
     }  
   
+    /**
+     * 值为 {@link ThumbConstant#UN_THUMB_CONSTANT} 的字段是取消点赞后留下的未点赞缓存
+     */
     @Override  
     public Boolean hasThumb(Long blogId, Long userId) {  
-        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());  
+        Object value = stringRedisTemplate.opsForHash().get(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return value != null && !UN_THUMB_VALUE.equals(value);
     }  
   
 }
@@ -3,6 +3,7 @@ package com.eric.thumb.service.impl;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.eric.thumb.constant.ThumbConstant;
 import com.eric.thumb.manager.cache.CacheManager;
+import com.eric.thumb.manager.cache.ThumbDigestManager;
 import com.eric.thumb.mapper.ThumbMapper;
 import com.eric.thumb.model.dto.thumb.DoThumbRequest;
 import com.eric.thumb.model.entity.Blog;
@@ -14,7 +15,6 @@ import com.eric.thumb.service.UserService;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.support.TransactionTemplate;
 
@@ -36,7 +36,7 @@ public class ThumbServiceMultipleCacheImpl extends ServiceImpl<ThumbMapper, Thum
 
     private final TransactionTemplate transactionTemplate;
 
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final ThumbDigestManager thumbDigestManager;
     // 引入缓存管理
     private final CacheManager cacheManager;
 
@@ -72,7 +72,7 @@ public class ThumbServiceMultipleCacheImpl extends ServiceImpl<ThumbMapper, Thum
                     String hashKey = ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId();
                     String fieldKey = blogId.toString();
                     Long realThumbId = thumb.getId();
-                    redisTemplate.opsForHash().put(hashKey, fieldKey, realThumbId);
+                    thumbDigestManager.markThumbed(loginUser.getId(), fieldKey, realThumbId);
                     cacheManager.putIfPresent(hashKey, fieldKey, realThumbId);
                 }
                 // 更新成功才执行
@@ -107,7 +107,7 @@ public class ThumbServiceMultipleCacheImpl extends ServiceImpl<ThumbMapper, Thum
                 if (success) {
                     String hashKey = ThumbConstant.USER_THUMB_KEY_PREFIX + loginUser.getId();
                     String fieldKey = blogId.toString();
-                    redisTemplate.opsForHash().delete(hashKey, fieldKey);
+                    thumbDigestManager.markUnthumbed(loginUser.getId(), fieldKey);
                     cacheManager.putIfPresent(hashKey, fieldKey, ThumbConstant.UN_THUMB_CONSTANT);
                 }
                 return success;
@@ -1,9 +1,8 @@
 package com.eric.thumb.service.impl;
 
-import cn.hutool.core.date.DateTime;
-import cn.hutool.core.date.DateUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.constant.ThumbConstant;
 import com.eric.thumb.mapper.ThumbMapper;
 import com.eric.thumb.model.dto.thumb.DoThumbRequest;
 import com.eric.thumb.model.entity.Thumb;
@@ -12,10 +11,11 @@ import com.eric.thumb.model.enums.LuaStatusEnum;
 import com.eric.thumb.service.ThumbService;
 import com.eric.thumb.service.UserService;
 import com.eric.thumb.util.RedisKeyUtil;
+import com.eric.thumb.util.ThumbTimeSliceUtil;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
@@ -32,9 +32,11 @@ import java.util.Arrays;
 @RequiredArgsConstructor
 public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService {
   
+    private static final String UN_THUMB_VALUE = String.valueOf(ThumbConstant.UN_THUMB_CONSTANT);
+
     private final UserService userService;
   
-    private final RedisTemplate<String, Object> redisTemplate;
+    private final StringRedisTemplate stringRedisTemplate;
   
     @Override  
     public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
@@ -48,13 +50,14 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         // Redis Key  
         String tempThumbKey = RedisKeyUtil.getTempThumbKey(timeSlice);
         String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUser.getId());  
+        String digestKey = RedisKeyUtil.getUserThumbDigestKey(loginUser.getId());
   
         // 执行 Lua 脚本  
-        long result = redisTemplate.execute(  
+        long result = stringRedisTemplate.execute(
                 RedisLuaScriptConstant.THUMB_SCRIPT,
-                Arrays.asList(tempThumbKey, userThumbKey),
-                loginUser.getId(),  
-                blogId  
+                Arrays.asList(tempThumbKey, userThumbKey, digestKey),
+                loginUser.getId().toString(),
+                blogId.toString()
         );  
   
         if (LuaStatusEnum.FAIL.getValue() == result) {
@@ -78,13 +81,14 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
         // Redis Key  
         String tempThumbKey = RedisKeyUtil.getTempThumbKey(timeSlice);  
         String userThumbKey = RedisKeyUtil.getUserThumbKey(loginUser.getId());  
+        String digestKey = RedisKeyUtil.getUserThumbDigestKey(loginUser.getId());
   
         // 执行 Lua 脚本  
-        long result = redisTemplate.execute(  
+        long result = stringRedisTemplate.execute(
                 RedisLuaScriptConstant.UNTHUMB_SCRIPT,  
-                Arrays.asList(tempThumbKey, userThumbKey),  
-                loginUser.getId(),  
-                blogId  
+                Arrays.asList(tempThumbKey, userThumbKey, digestKey),
+                loginUser.getId().toString(),
+                blogId.toString()
         );  
         // 根据返回值处理结果  
         if (result == LuaStatusEnum.FAIL.getValue()) {  
@@ -94,13 +98,16 @@ public class ThumbServiceRedisImpl extends ServiceImpl<ThumbMapper, Thumb> imple
     }  
   
     private String getTimeSlice() {  
-        DateTime nowDate = DateUtil.date();
-        // 获取到当前时间前最近的整数秒，比如当前 11:20:23 ，获取到 11:20:20  
-        return DateUtil.format(nowDate, "HH:mm:") + (DateUtil.second(nowDate) / 10) * 10;  
+        // epoch 秒 / 10，全局递增，同步任务按水位依次补齐  
+        return String.valueOf(ThumbTimeSliceUtil.currentSlice());  
     }  
   
+    /**
+     * 值为 {@link ThumbConstant#UN_THUMB_CONSTANT} 的字段是取消点赞后留下的未点赞缓存
+     */
     @Override  
     public Boolean hasThumb(Long blogId, Long userId) {  
-        return redisTemplate.opsForHash().hasKey(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());  
+        Object value = stringRedisTemplate.opsForHash().get(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return value != null && !UN_THUMB_VALUE.equals(value);
     }  
 }
@@ -0,0 +1,97 @@
+package com.eric.thumb.service.impl;
+
+import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.eric.thumb.constant.RedisLuaScriptConstant;
+import com.eric.thumb.constant.ThumbConstant;
+import com.eric.thumb.mapper.ThumbMapper;
+import com.eric.thumb.model.dto.thumb.DoThumbRequest;
+import com.eric.thumb.model.entity.Thumb;
+import com.eric.thumb.model.entity.User;
+import com.eric.thumb.model.enums.LuaStatusEnum;
+import com.eric.thumb.service.ThumbService;
+import com.eric.thumb.service.UserService;
+import com.eric.thumb.util.RedisKeyUtil;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+
+//@Service("thumbService")
+
+/**
+ * 基于 Redis Streams 的点赞服务实现，适用于没有 Pulsar 的部署
+ *
+ * 与 {@link ThumbServiceRedisImpl} 相同，用一个 Lua 脚本原子地检查并修改点赞状态，同时维护用户点赞摘要，
+ * 但不再写入按时间片轮询的临时 hash，而是把点赞事件追加到按 userId 分区的 Stream，
+ * 由 {@link com.eric.thumb.listener.ThumbStreamConsumer} 通过消费者组批量落库
+ * 启用时需要同时打开 thumb.stream.enabled
+ *
+ * @author Eric
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ThumbServiceRedisStreamImpl extends ServiceImpl<ThumbMapper, Thumb> implements ThumbService {
+
+    private static final String UN_THUMB_VALUE = String.valueOf(ThumbConstant.UN_THUMB_CONSTANT);
+
+    private final UserService userService;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * Stream 分区数，需要与消费端一致
+     */
+    @Value("${thumb.stream.partitions:8}")
+    private int partitions;
+
+    @Override
+    public Boolean doThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        long result = execute(RedisLuaScriptConstant.THUMB_STREAM_SCRIPT, loginUser.getId(), doThumbRequest.getBlogId());
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户已点赞");
+        }
+        return LuaStatusEnum.SUCCESS.getValue() == result;
+    }
+
+    @Override
+    public Boolean undoThumb(DoThumbRequest doThumbRequest, HttpServletRequest request) {
+        if (doThumbRequest == null || doThumbRequest.getBlogId() == null) {
+            throw new RuntimeException("参数错误");
+        }
+        User loginUser = userService.getLoginUser(request);
+        long result = execute(RedisLuaScriptConstant.UNTHUMB_STREAM_SCRIPT, loginUser.getId(), doThumbRequest.getBlogId());
+        if (LuaStatusEnum.FAIL.getValue() == result) {
+            throw new RuntimeException("用户未点赞");
+        }
+        return LuaStatusEnum.SUCCESS.getValue() == result;
+    }
+
+    /**
+     * 值为 {@link ThumbConstant#UN_THUMB_CONSTANT} 的字段是取消点赞后留下的未点赞缓存
+     */
+    @Override
+    public Boolean hasThumb(Long blogId, Long userId) {
+        Object value = stringRedisTemplate.opsForHash().get(RedisKeyUtil.getUserThumbKey(userId), blogId.toString());
+        return value != null && !UN_THUMB_VALUE.equals(value);
+    }
+
+    /**
+     * 同一用户的事件进入同一分区，同一 (userId, blogId) 的点赞、取消点赞保持顺序
+     */
+    private long execute(RedisScript<Long> script, Long userId, Long blogId) {
+        String streamKey = RedisKeyUtil.getThumbStreamKey(Math.floorMod(userId, partitions));
+        Long result = stringRedisTemplate.execute(script,
+                Arrays.asList(RedisKeyUtil.getUserThumbKey(userId), streamKey, RedisKeyUtil.getUserThumbDigestKey(userId)),
+                userId.toString(), blogId.toString(), String.valueOf(System.currentTimeMillis()));
+        return result == null ? LuaStatusEnum.FAIL.getValue() : result;
+    }
+}
@@ -12,6 +12,13 @@ public class RedisKeyUtil {
     public static String getUserThumbKey(Long userId) {  
         return ThumbConstant.USER_THUMB_KEY_PREFIX + userId;
     }  
+
+    /**
+     * 获取 用户点赞摘要 key
+     */
+    public static String getUserThumbDigestKey(Long userId) {
+        return ThumbConstant.USER_THUMB_DIGEST_KEY_PREFIX + userId;
+    }
   
     /**  
      * 获取 临时点赞记录 key  
@@ -19,5 +26,19 @@ public class RedisKeyUtil {
     public static String getTempThumbKey(String time) {  
         return ThumbConstant.TEMP_THUMB_KEY_PREFIX.formatted(time);  
     }  
+
+    /**
+     * 获取 点赞事件 Stream key
+     */
+    public static String getThumbStreamKey(int partition) {
+        return ThumbConstant.THUMB_STREAM_KEY_PREFIX.formatted(partition);
+    }
+
+    /**
+     * 获取 (userId, blogId) 最新事件时间 key
+     */
+    public static String getThumbPairClockKey(long userId, long blogId) {
+        return ThumbConstant.THUMB_PAIR_CLOCK_KEY_PREFIX.formatted(userId, blogId);
+    }
   
 }
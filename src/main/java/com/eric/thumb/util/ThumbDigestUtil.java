@@ -0,0 +1,35 @@
+package com.eric.thumb.util;
+
+import cn.hutool.crypto.SecureUtil;
+
+/**
+ * 用户点赞摘要工具类
+ *
+ * 摘要 = (点赞数, 各 blogId 哈希的异或)，点赞、取消点赞都只需要异或一次，与顺序无关：
+ * 1. blogId 的哈希取十进制字符串的 SHA-1，前 7 位、后续 7 位十六进制各作为一个 28 位分量，
+ *    Redis Lua（redis.sha1hex + bit.bxor）和 MySQL（SHA1 + CONV + BIT_XOR）可以算出相同的值
+ * 2. 分量不超过 28 位，在 Lua 的 32 位位运算中始终为非负数
+ *
+ * @author Eric
+ */
+public class ThumbDigestUtil {
+
+    private static final int LANE_BITS = 28;
+
+    private static final long LANE_MASK = (1L << LANE_BITS) - 1;
+
+    /**
+     * 两个分量拼成一个 long：高 28 位为第一分量，低 28 位为第二分量，异或时两个分量互不影响
+     */
+    public static long hashOf(long blogId) {
+        return Long.parseLong(SecureUtil.sha1(Long.toString(blogId)).substring(0, 14), 16);
+    }
+
+    public static long digest1(long hash) {
+        return hash >>> LANE_BITS;
+    }
+
+    public static long digest2(long hash) {
+        return hash & LANE_MASK;
+    }
+}
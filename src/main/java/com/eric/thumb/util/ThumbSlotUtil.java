@@ -0,0 +1,33 @@
+package com.eric.thumb.util;
+
+/**
+ * 点赞事件路由槽位工具类
+ *
+ * 消息 key 使用 (userId, blogId) 的哈希槽位而不是原始组合：
+ * 1. 同一 (userId, blogId) 永远落在同一个槽位，Key_Shared 下保证有序
+ * 2. key 的取值范围固定，Broker 端按 key 维护的状态不会随用户量膨胀
+ *
+ * @author Eric
+ */
+public class ThumbSlotUtil {
+
+    /**
+     * 槽位数量，生产者和消费者必须一致
+     */
+    public static final int SLOT_COUNT = 256;
+
+    public static int slotOf(long userId, long blogId) {
+        long h = userId * 0x9E3779B97F4A7C15L + blogId;
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return (int) Math.floorMod(h, (long) SLOT_COUNT);
+    }
+
+    /**
+     * 获取 消息路由 key
+     */
+    public static String getRoutingKey(long userId, long blogId) {
+        return String.valueOf(slotOf(userId, blogId));
+    }
+}
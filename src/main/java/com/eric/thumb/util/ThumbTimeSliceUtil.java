@@ -0,0 +1,26 @@
+package com.eric.thumb.util;
+
+/**
+ * 临时点赞数据时间片工具类
+ *
+ * 时间片编号为 epoch 秒 / 时间片长度，全局单调递增，不会按天回绕：
+ * 1. 同步任务可以用一个持久化的水位记录已经落库的最大时间片，之后的时间片依次补齐
+ * 2. 当前时间片之前的时间片都已封闭，不会再有新的写入
+ *
+ * @author Eric
+ */
+public class ThumbTimeSliceUtil {
+
+    /**
+     * 时间片长度（秒）
+     */
+    public static final int SLICE_SECONDS = 10;
+
+    public static long sliceOf(long epochMillis) {
+        return Math.floorDiv(epochMillis, SLICE_SECONDS * 1000L);
+    }
+
+    public static long currentSlice() {
+        return sliceOf(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,112 @@
+package com.eric.thumb.listener.thumb.msg;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * ThumbEventCodec 编解码往返与损坏消息校验
+ */
+class ThumbEventCodecTests {
+
+    @Test
+    void roundTripKeepsAllFields() {
+        // 编码只保留毫秒
+        LocalDateTime eventTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        for (ThumbEvent.EventType type : ThumbEvent.EventType.values()) {
+            ThumbEvent event = event(1_900_000_000_000_000_001L, 1_900_000_000_000_000_002L, type, eventTime);
+
+            byte[] bytes = ThumbEventCodec.encode(event);
+
+            assertThat(bytes).hasSize(ThumbEventCodec.ENCODED_SIZE);
+            assertThat(ThumbEventCodec.isLegacyJson(bytes)).isFalse();
+            assertThat(ThumbEventCodec.decode(bytes)).isEqualTo(event);
+        }
+    }
+
+    @Test
+    void roundTripWithoutEventTime() {
+        ThumbEvent event = event(1L, 2L, ThumbEvent.EventType.DECR, null);
+
+        ThumbEvent decoded = ThumbEventCodec.decode(ThumbEventCodec.encode(event));
+
+        assertThat(decoded).isEqualTo(event);
+        assertThat(decoded.getEventTime()).isNull();
+    }
+
+    @Test
+    void consecutiveEventsInOneBuffer() {
+        LocalDateTime eventTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        ThumbEvent[] events = {
+                event(1L, 10L, ThumbEvent.EventType.INCR, eventTime),
+                event(1L, 10L, ThumbEvent.EventType.DECR, eventTime.plusSeconds(1)),
+                event(Long.MAX_VALUE, Long.MIN_VALUE, ThumbEvent.EventType.INCR, eventTime.plusSeconds(2))
+        };
+        ByteBuffer buffer = ByteBuffer.allocate(ThumbEventCodec.ENCODED_SIZE * events.length);
+        for (ThumbEvent event : events) {
+            ThumbEventCodec.encode(event, buffer);
+        }
+        buffer.flip();
+
+        for (ThumbEvent event : events) {
+            assertThat(ThumbEventCodec.decode(buffer)).isEqualTo(event);
+        }
+        assertThat(buffer.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void unknownTypeIsRejected() {
+        byte[] bytes = ThumbEventCodec.encode(event(1L, 2L, ThumbEvent.EventType.INCR, null));
+        for (byte type : new byte[]{0, 3, -1}) {
+            bytes[1] = type;
+
+            assertThatThrownBy(() -> ThumbEventCodec.decode(bytes))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("类型");
+        }
+    }
+
+    @Test
+    void unknownVersionIsRejected() {
+        byte[] bytes = ThumbEventCodec.encode(event(1L, 2L, ThumbEvent.EventType.INCR, null));
+        bytes[0] = 2;
+
+        assertThatThrownBy(() -> ThumbEventCodec.decode(bytes))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("版本");
+    }
+
+    @Test
+    void truncatedMessageIsRejected() {
+        byte[] bytes = ThumbEventCodec.encode(event(1L, 2L, ThumbEvent.EventType.INCR, null));
+
+        assertThatThrownBy(() -> ThumbEventCodec.decode(Arrays.copyOf(bytes, bytes.length - 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ThumbEventCodec.decode(new byte[0]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void legacyJsonIsDetected() {
+        byte[] json = "{\"userId\":1,\"blogId\":2,\"type\":\"INCR\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(ThumbEventCodec.isLegacyJson(json)).isTrue();
+        assertThat(ThumbEventCodec.isLegacyJson(new byte[0])).isFalse();
+    }
+
+    private ThumbEvent event(long userId, long blogId, ThumbEvent.EventType type, LocalDateTime eventTime) {
+        return ThumbEvent.builder()
+                .userId(userId)
+                .blogId(blogId)
+                .type(type)
+                .eventTime(eventTime)
+                .build();
+    }
+}
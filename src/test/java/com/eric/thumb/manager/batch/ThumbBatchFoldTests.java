@@ -0,0 +1,134 @@
+package com.eric.thumb.manager.batch;
+
+import cn.hutool.core.lang.Pair;
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * ThumbBatchFold 正确性校验：与原 groupingBy 实现逐批比较插入、删除的 (userId, blogId) 和博客点赞数增量
+ */
+class ThumbBatchFoldTests {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Test
+    void foldMatchesLegacyImplementation() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            List<ThumbEvent> events = randomBatch(random, BATCH_SIZE, 1 + random.nextInt(BATCH_SIZE));
+
+            ThumbBatchFold fold = new ThumbBatchFold(events.size());
+            events.forEach(fold::add);
+
+            Map<Pair<Long, Long>, ThumbEvent.EventType> expected = legacyFold(events);
+            assertThat(inserts(fold)).isEqualTo(pairsOf(expected, ThumbEvent.EventType.INCR));
+            assertThat(deletes(fold)).isEqualTo(pairsOf(expected, ThumbEvent.EventType.DECR));
+            assertThat(fold.blogDeltas().toNonZeroMap()).isEqualTo(legacyBlogDeltas(expected));
+            assertThat(fold.eventCount()).isEqualTo(events.size());
+        }
+    }
+
+    @Test
+    void cancelledPairsAreNeitherInsertedNorDeleted() {
+        ThumbBatchFold fold = new ThumbBatchFold(4);
+        // (1, 10) 点赞后取消，(2, 10) 取消后又点赞：净效果为 0
+        fold.add(1L, 10L, true);
+        fold.add(2L, 10L, false);
+        fold.add(1L, 10L, false);
+        fold.add(2L, 10L, true);
+        // (3, 10) 点赞、(4, 20) 取消
+        fold.add(3L, 10L, true);
+        fold.add(4L, 20L, false);
+
+        assertThat(inserts(fold)).containsExactly(Pair.of(3L, 10L));
+        assertThat(deletes(fold)).containsExactly(Pair.of(4L, 20L));
+        assertThat(fold.blogDeltas().toNonZeroMap()).isEqualTo(Map.of(10L, 1L, 20L, -1L));
+        assertThat(fold.pairCount()).isEqualTo(4);
+        assertThat(fold.eventCount()).isEqualTo(6);
+    }
+
+    private Set<Pair<Long, Long>> inserts(ThumbBatchFold fold) {
+        Set<Pair<Long, Long>> pairs = new HashSet<>();
+        fold.forEachInsert((userId, blogId) -> assertThat(pairs.add(Pair.of(userId, blogId))).isTrue());
+        return pairs;
+    }
+
+    private Set<Pair<Long, Long>> deletes(ThumbBatchFold fold) {
+        Set<Pair<Long, Long>> pairs = new HashSet<>();
+        fold.forEachDelete((userId, blogId) -> assertThat(pairs.add(Pair.of(userId, blogId))).isTrue());
+        return pairs;
+    }
+
+    private Set<Pair<Long, Long>> pairsOf(Map<Pair<Long, Long>, ThumbEvent.EventType> folded, ThumbEvent.EventType type) {
+        return folded.entrySet().stream()
+                .filter(entry -> entry.getValue() == type)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * 原 ThumbConsumer.processBatch 中的实现：按 Pair 分组、按时间排序、奇偶判断
+     *
+     * @return 净效果不为 0 的 (userId, blogId) 及其最后一条事件的类型
+     */
+    private Map<Pair<Long, Long>, ThumbEvent.EventType> legacyFold(List<ThumbEvent> events) {
+        Map<Pair<Long, Long>, ThumbEvent.EventType> folded = new HashMap<>();
+        events.stream()
+                .collect(Collectors.groupingBy(
+                        e -> Pair.of(e.getUserId(), e.getBlogId()),
+                        Collectors.collectingAndThen(
+                                Collectors.toList(),
+                                list -> {
+                                    list.sort(Comparator.comparing(ThumbEvent::getEventTime));
+                                    if (list.size() % 2 == 0) {
+                                        return Optional.<ThumbEvent>empty();
+                                    }
+                                    return Optional.of(list.get(list.size() - 1));
+                                }
+                        )
+                ))
+                .forEach((pair, event) -> event.ifPresent(e -> folded.put(pair, e.getType())));
+        return folded;
+    }
+
+    private Map<Long, Long> legacyBlogDeltas(Map<Pair<Long, Long>, ThumbEvent.EventType> folded) {
+        Map<Long, Long> countMap = new HashMap<>();
+        folded.forEach((pair, type) -> countMap.merge(pair.getValue(), type == ThumbEvent.EventType.INCR ? 1L : -1L, Long::sum));
+        countMap.values().removeIf(value -> value == 0);
+        return countMap;
+    }
+
+    /**
+     * 生成一批事件，同一 (userId, blogId) 的事件在点赞/取消之间交替，与写路径保证的语义一致
+     */
+    private List<ThumbEvent> randomBatch(Random random, int size, int pairCount) {
+        long[] userIds = new long[pairCount];
+        long[] blogIds = new long[pairCount];
+        boolean[] thumbed = new boolean[pairCount];
+        for (int i = 0; i < pairCount; i++) {
+            // userId 互不相同，保证每个下标对应唯一的 (userId, blogId)
+            userIds[i] = 1_900_000_000_000_000_000L + i;
+            blogIds[i] = 1_900_000_000_000_000_000L + random.nextInt(50);
+            thumbed[i] = random.nextBoolean();
+        }
+        LocalDateTime time = LocalDateTime.now();
+        List<ThumbEvent> events = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int pair = random.nextInt(pairCount);
+            thumbed[pair] = !thumbed[pair];
+            events.add(ThumbEvent.builder()
+                    .userId(userIds[pair])
+                    .blogId(blogIds[pair])
+                    .type(thumbed[pair] ? ThumbEvent.EventType.INCR : ThumbEvent.EventType.DECR)
+                    .eventTime(time.plusNanos(i * 1000L))
+                    .build());
+        }
+        return events;
+    }
+}
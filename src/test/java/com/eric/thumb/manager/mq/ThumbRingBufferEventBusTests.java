@@ -0,0 +1,211 @@
+package com.eric.thumb.manager.mq;
+
+import cn.hutool.core.lang.Pair;
+import com.eric.thumb.listener.thumb.msg.ThumbEvent;
+import com.eric.thumb.manager.BatchProcessManager;
+import com.eric.thumb.manager.batch.LongLongHashMap;
+import com.eric.thumb.manager.batch.ThumbBatchFold;
+import com.eric.thumb.manager.batch.ThumbCountAccumulator;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * ThumbRingBufferEventBus 并发发布、槽位回绕、缓冲满拒绝与停止时排空
+ * 落库、事务、累加器都是 mock，落库时记录每批折叠出的 (userId, blogId)
+ */
+class ThumbRingBufferEventBusTests {
+
+    private final BatchProcessManager batchProcessManager = mock(BatchProcessManager.class);
+
+    private final ThumbCountAccumulator thumbCountAccumulator = mock(ThumbCountAccumulator.class);
+
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    /**
+     * 落库收到的 (userId, blogId)，同一个 pair 重复落库时计数大于 1
+     */
+    private final Map<Pair<Long, Long>, Integer> persisted = new ConcurrentHashMap<>();
+
+    /**
+     * 待计入记录 id -> 点赞增量
+     */
+    private final Map<Long, Long> pendingDeltas = new ConcurrentHashMap<>();
+
+    private final AtomicLong pendingIdSequence = new AtomicLong();
+
+    /**
+     * 累加器收到的点赞数增量之和
+     */
+    private final AtomicLong accumulated = new AtomicLong();
+
+    private ThumbRingBufferEventBus bus;
+
+    ThumbRingBufferEventBusTests() {
+        when(transactionTemplate.execute(any())).thenAnswer(invocation ->
+                invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(batchProcessManager.persistThumbs(any())).thenAnswer(invocation -> record(invocation.getArgument(0)));
+        when(batchProcessManager.recordPendingDeltas(any())).thenAnswer(invocation -> {
+            List<Long> ids = new ArrayList<>();
+            invocation.<LongLongHashMap>getArgument(0).forEach((blogId, delta) -> {
+                long id = pendingIdSequence.incrementAndGet();
+                pendingDeltas.put(id, delta);
+                ids.add(id);
+            });
+            return ids;
+        });
+        doAnswer(invocation -> {
+            invocation.<List<Long>>getArgument(0).forEach(id -> accumulated.addAndGet(pendingDeltas.get(id)));
+            return null;
+        }).when(thumbCountAccumulator).add(any(), any());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (bus != null) {
+            bus.stop();
+        }
+    }
+
+    @Test
+    void concurrentPublishDeliversEveryEventOnce() throws Exception {
+        start(1024, 256, 5000);
+        int producers = 8;
+        int perProducer = 20_000;
+        List<Thread> threads = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            long userId = p + 1;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    bus.send(event(userId, i));
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        bus.stop();
+
+        assertThat(persisted).hasSize(producers * perProducer);
+        assertThat(new HashSet<>(persisted.values())).containsExactly(1);
+        assertThat(accumulated.get()).isEqualTo(producers * perProducer);
+        assertThat(registry.get("thumb.ring.rejected.count").counter().count()).isZero();
+    }
+
+    @Test
+    void slotsAreReusedAfterWrapAround() throws Exception {
+        // 容量 3 向上取整为 4 个槽位，1000 个事件回绕 250 轮
+        start(3, 2, 5000);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            futures.add(bus.send(event(1L, i)));
+        }
+        bus.stop();
+
+        assertThat(futures).allMatch(future -> future.isDone() && !future.isCompletedExceptionally());
+        Set<Pair<Long, Long>> expected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            expected.add(Pair.of(1L, (long) i));
+        }
+        assertThat(persisted.keySet()).isEqualTo(expected);
+        assertThat(new HashSet<>(persisted.values())).containsExactly(1);
+    }
+
+    @Test
+    void publishIsRejectedWhenBufferStaysFull() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            entered.countDown();
+            release.await();
+            return invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null);
+        }).when(transactionTemplate).execute(any());
+        start(4, 16, 50);
+
+        // 第一个事件被消费者取走后阻塞在落库，4 个槽位都空出来
+        assertThat(bus.send(event(1L, 0)).isCompletedExceptionally()).isFalse();
+        assertThat(entered.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 4; i++) {
+            assertThat(bus.send(event(1L, i)).isCompletedExceptionally()).isFalse();
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> rejected = bus.send(event(1L, 5));
+
+        assertThat(rejected.isCompletedExceptionally()).isTrue();
+        assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(registry.get("thumb.ring.rejected.count").counter().count()).isEqualTo(1);
+
+        // 拒绝的事件不进入缓冲，已接收的事件照常落库
+        release.countDown();
+        bus.stop();
+        assertThat(persisted.keySet()).containsExactlyInAnyOrder(
+                Pair.of(1L, 0L), Pair.of(1L, 1L), Pair.of(1L, 2L), Pair.of(1L, 3L), Pair.of(1L, 4L));
+    }
+
+    @Test
+    void stopDrainsPublishedEvents() throws Exception {
+        // 每批落库放慢，stop 时缓冲中仍有大量事件
+        doAnswer(invocation -> {
+            TimeUnit.MILLISECONDS.sleep(5);
+            return record(invocation.getArgument(0));
+        }).when(batchProcessManager).persistThumbs(any());
+        start(4096, 64, 5000);
+        for (int i = 0; i < 4000; i++) {
+            bus.send(event(1L, i));
+        }
+
+        bus.stop();
+
+        assertThat(persisted).hasSize(4000);
+        assertThat(accumulated.get()).isEqualTo(4000);
+        // 停止后不再接收
+        assertThat(bus.send(event(2L, 0)).isCompletedExceptionally()).isTrue();
+    }
+
+    private void start(int capacity, int maxBatch, long publishTimeoutMs) {
+        bus = new ThumbRingBufferEventBus(batchProcessManager, thumbCountAccumulator, transactionTemplate, registry);
+        ReflectionTestUtils.setField(bus, "capacity", capacity);
+        ReflectionTestUtils.setField(bus, "maxBatch", maxBatch);
+        ReflectionTestUtils.setField(bus, "publishTimeoutMs", publishTimeoutMs);
+        bus.start();
+    }
+
+    /**
+     * 记录一批落库的 (userId, blogId)，按折叠结果返回点赞数增量
+     */
+    private BatchProcessManager.PersistResult record(ThumbBatchFold fold) {
+        fold.forEachInsert((userId, blogId) -> persisted.merge(Pair.of(userId, blogId), 1, Integer::sum));
+        return new BatchProcessManager.PersistResult(fold.pairCount(), fold.blogDeltas());
+    }
+
+    private ThumbEvent event(long userId, long blogId) {
+        return ThumbEvent.builder()
+                .userId(userId)
+                .blogId(blogId)
+                .type(ThumbEvent.EventType.INCR)
+                .build();
+    }
+}
@@ -0,0 +1,118 @@
+package com.eric.thumb.mapper;
+
+import com.baomidou.mybatisplus.core.conditions.query.LambdaQueryWrapper;
+import com.baomidou.mybatisplus.core.toolkit.IdWorker;
+import com.eric.thumb.model.entity.Thumb;
+import jakarta.annotation.Resource;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 批量删除、INSERT IGNORE 的行数语义
+ * 使用远大于真实用户 id 的合成 userId，每个用例在事务中执行并回滚
+ */
+@SpringBootTest
+@Transactional
+class ThumbMapperTests {
+
+    private static final long BASE_USER_ID = 9_000_000_000_000L;
+
+    private static final long BLOG_ID = 1L;
+
+    private static final long OTHER_BLOG_ID = 2L;
+
+    @Resource
+    private ThumbMapper thumbMapper;
+
+    @Test
+    void insertIgnoreBatchReturnsInsertedRows() {
+        List<Thumb> thumbs = newThumbs(0, 100, BLOG_ID);
+
+        assertThat(thumbMapper.insertIgnoreBatch(thumbs)).isEqualTo(100);
+        assertThat(countSynthetic()).isEqualTo(100);
+    }
+
+    @Test
+    void insertIgnoreBatchSkipsExistingPairs() {
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 50, BLOG_ID));
+
+        // 重复投递：新 id、相同 (userId, blogId)，不抛唯一索引冲突，只插入新的 50 条
+        assertThat(thumbMapper.insertIgnoreBatch(newThumbs(0, 100, BLOG_ID))).isEqualTo(50);
+        assertThat(thumbMapper.insertIgnoreBatch(newThumbs(0, 100, BLOG_ID))).isZero();
+        assertThat(countSynthetic()).isEqualTo(100);
+    }
+
+    @Test
+    void deleteByUserBlogPairsDeletesOnlyGivenPairs() {
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 100, BLOG_ID));
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 100, OTHER_BLOG_ID));
+
+        assertThat(thumbMapper.deleteByUserBlogPairs(pairs(0, 40, BLOG_ID))).isEqualTo(40);
+
+        // 同一用户对其他博客的点赞、同一博客的其他用户都不受影响
+        assertThat(countSynthetic()).isEqualTo(160);
+        assertThat(thumbMapper.selectExistingPairs(pairs(0, 100, BLOG_ID))).hasSize(60);
+        assertThat(thumbMapper.selectExistingPairs(pairs(0, 100, OTHER_BLOG_ID))).hasSize(100);
+    }
+
+    @Test
+    void deleteByUserBlogPairsReturnsMatchedRowsOnly() {
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 10, BLOG_ID));
+
+        // 一半存在、一半不存在，已删除的再删一次返回 0
+        assertThat(thumbMapper.deleteByUserBlogPairs(pairs(5, 10, BLOG_ID))).isEqualTo(5);
+        assertThat(thumbMapper.deleteByUserBlogPairs(pairs(5, 10, BLOG_ID))).isZero();
+        assertThat(countSynthetic()).isEqualTo(5);
+    }
+
+    @Test
+    void selectExistingIdsReturnsOnlyRowsActuallyInserted() {
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 50, BLOG_ID));
+        List<Thumb> thumbs = newThumbs(0, 100, BLOG_ID);
+
+        // 被 INSERT IGNORE 跳过的记录不使用这次分配的主键
+        assertThat(thumbMapper.insertIgnoreBatch(thumbs)).isEqualTo(50);
+        assertThat(thumbMapper.selectExistingIds(thumbs.stream().map(Thumb::getId).toList()))
+                .containsExactlyInAnyOrderElementsOf(thumbs.subList(50, 100).stream().map(Thumb::getId).toList());
+    }
+
+    @Test
+    void lockExistingPairsReturnsOnlyExistingPairs() {
+        thumbMapper.insertIgnoreBatch(newThumbs(0, 10, BLOG_ID));
+
+        assertThat(thumbMapper.lockExistingPairs(pairs(5, 20, BLOG_ID)))
+                .extracting(Thumb::getUserId)
+                .containsExactlyInAnyOrder(BASE_USER_ID + 5, BASE_USER_ID + 6, BASE_USER_ID + 7,
+                        BASE_USER_ID + 8, BASE_USER_ID + 9);
+    }
+
+    private long countSynthetic() {
+        return thumbMapper.selectCount(new LambdaQueryWrapper<Thumb>().ge(Thumb::getUserId, BASE_USER_ID));
+    }
+
+    private List<Thumb> newThumbs(int from, int to, long blogId) {
+        List<Thumb> thumbs = pairs(from, to, blogId);
+        thumbs.forEach(thumb -> thumb.setId(IdWorker.getId()));
+        return thumbs;
+    }
+
+    /**
+     * 只填充 userId、blogId
+     */
+    private List<Thumb> pairs(int from, int to, long blogId) {
+        List<Thumb> thumbs = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            Thumb thumb = new Thumb();
+            thumb.setUserId(BASE_USER_ID + i);
+            thumb.setBlogId(blogId);
+            thumbs.add(thumb);
+        }
+        return thumbs;
+    }
+}